@@ -21,7 +21,6 @@ package org.apache.karaf.eik.app;
 import java.io.File;
 import java.io.IOException;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
@@ -30,10 +29,6 @@ import java.util.Properties;
  */
 public final class PropertyUtils {
 
-    private static final String DELIM_START = "${";
-
-    private static final String DELIM_STOP = "}";
-
     /**
      * Retrieves the canonicalized directory from the specified path.
      *
@@ -65,19 +60,29 @@ public final class PropertyUtils {
 
     /**
      * Interpolates variables found in the property string values. A variable is
-     * {@code $ name} and can be nested {@code $ outer-$ inner} .
+     * {@code $ name} and can be nested {@code $ outer-$ inner} .<br>
+     * <br>
+     * All values are resolved in a single pass: every referenced property is
+     * resolved once, before the values that refer to it.
      *
      * @param configProperties
      *            the {@link Properties} object that will have its variables
      *            interpolated
+     * @param initialProperties
+     *            the {@link Properties} that variables are resolved against;
+     *            if null only system properties are used
+     * @throws IllegalArgumentException
+     *             If there was a syntax error in the property placeholder
+     *             syntax or a recursive variable reference.
      */
     public static void interpolateVariables(final Properties configProperties, final Properties initialProperties) {
+        final PropertyInterpolator interpolator = new PropertyInterpolator(initialProperties);
 
-        for (Enumeration<?> e = configProperties.propertyNames(); e.hasMoreElements();) {
+        for (final Enumeration<?> e = configProperties.propertyNames(); e.hasMoreElements();) {
             final String name = (String) e.nextElement();
             final String value = (String) configProperties.get(name);
 
-            final String newValue = PropertyUtils.substVars(value, name, null, initialProperties);
+            final String newValue = interpolator.interpolate(value, name, null);
             configProperties.put(name, newValue);
         }
     }
@@ -108,84 +113,9 @@ public final class PropertyUtils {
      *             If there was a syntax error in the property placeholder
      *             syntax or a recursive variable reference.
      */
-    public static String substVars(String val, String currentKey, Map<String, String> cycleMap, Properties configProps)
+    public static String substVars(final String val, final String currentKey, final Map<String, String> cycleMap, final Properties configProps)
             throws IllegalArgumentException {
-        // If there is currently no cycle map, then create
-        // one for detecting cycles for this invocation.
-        if (cycleMap == null) {
-            cycleMap = new HashMap<String, String>();
-        }
-
-        // Put the current key in the cycle map.
-        cycleMap.put(currentKey, currentKey);
-
-        // Assume we have a value that is something like:
-        // "leading ${foo.${bar}} middle ${baz} trailing"
-
-        // Find the first ending '}' variable delimiter, which
-        // will correspond to the first deepest nested variable
-        // placeholder.
-        int stopDelim = val.indexOf(DELIM_STOP);
-
-        // Find the matching starting "${" variable delimiter
-        // by looping until we find a start delimiter that is
-        // greater than the stop delimiter we have found.
-        int startDelim = val.indexOf(DELIM_START);
-        while (stopDelim >= 0) {
-            int idx = val.indexOf(DELIM_START, startDelim + DELIM_START.length());
-            if ((idx < 0) || (idx > stopDelim)) {
-                break;
-            } else if (idx < stopDelim) {
-                startDelim = idx;
-            }
-        }
-
-        // If we do not have a start or stop delimiter, then just
-        // return the existing value.
-        if ((startDelim < 0) && (stopDelim < 0)) {
-            return val;
-        }
-        // At this point, we found a stop delimiter without a start,
-        // so throw an exception.
-        else if (((startDelim < 0) || (startDelim > stopDelim)) && (stopDelim >= 0)) {
-            throw new IllegalArgumentException("stop delimiter with no start delimiter: " + val);
-        }
-
-        // At this point, we have found a variable placeholder so
-        // we must perform a variable substitution on it.
-        // Using the start and stop delimiter indices, extract
-        // the first, deepest nested variable placeholder.
-        String variable = val.substring(startDelim + DELIM_START.length(), stopDelim);
-
-        // Verify that this is not a recursive variable reference.
-        if (cycleMap.get(variable) != null) {
-            throw new IllegalArgumentException("recursive variable reference: " + variable);
-        }
-
-        // Get the value of the deepest nested variable placeholder.
-        // Try to configuration properties first.
-        String substValue = (configProps != null) ? configProps.getProperty(variable, null) : null;
-        if (substValue == null) {
-            // Ignore unknown property values.
-            substValue = System.getProperty(variable, "");
-        }
-
-        // Remove the found variable from the cycle map, since
-        // it may appear more than once in the value and we don't
-        // want such situations to appear as a recursive reference.
-        cycleMap.remove(variable);
-
-        // Append the leading characters, the substituted value of
-        // the variable, and the trailing characters to get the new
-        // value.
-        val = val.substring(0, startDelim) + substValue + val.substring(stopDelim + DELIM_STOP.length(), val.length());
-
-        // Now perform substitution again, since there could still
-        // be substitutions to make.
-        val = substVars(val, currentKey, cycleMap, configProps);
-
-        // Return the value.
-        return val;
+        return new PropertyInterpolator(configProps).interpolate(val, currentKey, cycleMap != null ? cycleMap.keySet() : null);
     }
 
 }
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the files below a directory whose names match a glob pattern such as
+ * {@code *.jar} or {@code *.{jar,war}}. The glob supports {@code *},
+ * {@code ?} and {@code {a,b}} alternatives and is matched against file names
+ * only.
+ * <p>
+ * Results are cached by root directory, pattern and depth. A cached result is
+ * reused as long as none of the directories that were walked to produce it
+ * has a different modification time, which is the case whenever an entry is
+ * added to, removed from or renamed in a directory. A scan is not cached if
+ * one of its directories was modified so shortly before the scan that a
+ * further change could leave its modification time unchanged.
+ */
+public final class DirectoryScanner {
+
+    /**
+     * A cached scan result and the modification times of the directories
+     * that were walked
+     */
+    private static final class ScanResult {
+
+        private final Map<File, Long> directories;
+
+        private final List<File> files;
+
+        private ScanResult(final List<File> files, final Map<File, Long> directories) {
+            this.files = files;
+            this.directories = directories;
+        }
+
+        private boolean isCacheable(final long scanTime) {
+            for (final Long modified : directories.values()) {
+                if (PropertiesFileCache.isRacilyModified(modified.longValue(), scanTime)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean isCurrent() {
+            for (final Map.Entry<File, Long> e : directories.entrySet()) {
+                if (e.getKey().lastModified() != e.getValue().longValue()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private static final ConcurrentMap<String, Pattern> PATTERNS = new ConcurrentHashMap<String, Pattern>();
+
+    private static final ConcurrentMap<String, ScanResult> RESULTS = new ConcurrentHashMap<String, ScanResult>();
+
+    /**
+     * Discards all cached scan results
+     */
+    public static void clearCache() {
+        RESULTS.clear();
+    }
+
+    /**
+     * Finds the files below a directory whose names match a glob pattern
+     *
+     * @param dir
+     *            the directory to search
+     * @param glob
+     *            the glob pattern that file names must match
+     * @param maxDepth
+     *            the number of directory levels below {@code dir} to search;
+     *            0 searches only {@code dir} itself
+     * @return the unmodifiable {@link List} of matching files, in the order
+     *         they were found
+     */
+    public static List<File> scan(final File dir, final String glob, final int maxDepth) {
+        if (dir == null) {
+            throw new IllegalArgumentException("Directory must not be null");
+        }
+
+        final String key = dir.getAbsolutePath() + File.pathSeparatorChar + glob + File.pathSeparatorChar + maxDepth;
+
+        final ScanResult cached = RESULTS.get(key);
+        if (cached != null && cached.isCurrent()) {
+            return cached.files;
+        }
+
+        final long scanTime = System.currentTimeMillis();
+        final List<File> files = new ArrayList<File>();
+        final Map<File, Long> directories = new LinkedHashMap<File, Long>();
+        walk(dir, getPattern(glob), maxDepth, files, directories);
+
+        final ScanResult result = new ScanResult(Collections.unmodifiableList(files), directories);
+        if (result.isCacheable(scanTime)) {
+            RESULTS.put(key, result);
+        } else {
+            RESULTS.remove(key);
+        }
+
+        return result.files;
+    }
+
+    /**
+     * Converts a glob to a regular expression {@link Pattern}
+     */
+    private static Pattern getPattern(final String glob) {
+        Pattern pattern = PATTERNS.get(glob);
+        if (pattern == null) {
+            final StringBuilder regex = new StringBuilder(glob.length() + 16);
+            boolean inAlternatives = false;
+            for (int i = 0; i < glob.length(); i++) {
+                final char c = glob.charAt(i);
+                switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '{':
+                    inAlternatives = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    inAlternatives = false;
+                    regex.append(')');
+                    break;
+                case ',':
+                    regex.append(inAlternatives ? "|" : ",");
+                    break;
+                default:
+                    if ("\\.[]()+^$|".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+
+                    regex.append(c);
+                    break;
+                }
+            }
+
+            pattern = Pattern.compile(regex.toString());
+            PATTERNS.putIfAbsent(glob, pattern);
+        }
+
+        return pattern;
+    }
+
+    private static void walk(final File dir, final Pattern pattern, final int maxDepth, final List<File> files, final Map<File, Long> directories) {
+        directories.put(dir, Long.valueOf(dir.lastModified()));
+
+        final File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        for (final File entry : entries) {
+            if (entry.isDirectory()) {
+                if (maxDepth > 0) {
+                    walk(entry, pattern, maxDepth - 1, files, directories);
+                }
+            } else if (pattern.matcher(entry.getName()).matches()) {
+                files.add(entry);
+            }
+        }
+    }
+
+    private DirectoryScanner() {
+        throw new AssertionError("Cannot instantiate " + DirectoryScanner.class.getName());
+    }
+
+}
@@ -22,27 +22,21 @@ import org.apache.karaf.eik.core.equinox.BundleEntry;
 import org.apache.karaf.eik.core.internal.KarafCorePluginActivator;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
-import java.util.StringTokenizer;
 
 import org.apache.commons.collections.Predicate;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.FileLocator;
-import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
-import org.eclipse.core.runtime.Status;
 import org.osgi.framework.Bundle;
 
 public final class KarafCorePluginUtils {
 
-    private static final String INCLUDES_PROPERTY = "${includes}";
-
     /**
      * Create a JVM system property argument (e.g -DpropertyName=propertyValue).
      *
@@ -140,9 +134,7 @@ public final class KarafCorePluginUtils {
     }
 
     /**
-     * Searches a directory to the specified depth for library files.<br>
-     * <br>
-     * This method is recursive so be careful with the maximum depth
+     * Searches a directory to the specified depth for library files.
      *
      * @param dir
      *            the directory to being the search
@@ -150,42 +142,28 @@ public final class KarafCorePluginUtils {
      *            the list of libraries found
      * @param maxDepth
      *            the current maximum depth
+     * @see DirectoryScanner
      */
     public static void getJarFileList(final File dir, final List<File> list, final int maxDepth) {
-    	getFileList(dir, ".jar", list, maxDepth);
+        getFileList(dir, ".jar", list, maxDepth);
     }
 
-	/**
-	 * Searches a directory to the specified depth for library files.<br>
-	 * <br>
-	 * This method is recursive so be careful with the maximum depth
-	 *
-	 * @param dir
-	 *            the directory to being the search
-	 * @param extension
-	 *            the extension to search for
-	 * @param list
-	 *            the list of libraries found
-	 * @param maxDepth
-	 *            the current maximum depth
-	 */
+    /**
+     * Searches a directory to the specified depth for files with the
+     * specified extension.
+     *
+     * @param dir
+     *            the directory to being the search
+     * @param extension
+     *            the extension to search for
+     * @param list
+     *            the list of libraries found
+     * @param maxDepth
+     *            the current maximum depth
+     * @see DirectoryScanner
+     */
     public static void getFileList(final File dir, final String extension, final List<File> list, final int maxDepth) {
-        if (dir == null) {
-            throw new IllegalArgumentException("Directory must not be null");
-        }
-
-        final File[] files = dir.listFiles();
-        if (files == null) {
-            return;
-        }
-
-        for (final File file : files) {
-            if (file.isDirectory() && maxDepth > 0) {
-                getFileList(file, extension, list, maxDepth - 1);
-            } else if (file.getAbsolutePath().endsWith(extension) || file.getAbsolutePath().endsWith(".zip")) {
-                list.add(file);
-            }
-        }
+        list.addAll(DirectoryScanner.scan(dir, "*" + extension, maxDepth));
     }
 
     /**
@@ -230,14 +208,15 @@ public final class KarafCorePluginUtils {
     /**
      * Loads a configuration file relative to the specified base directory. This
      * method also processes any include directives that import other properties
-     * files relative to the specified property file.
+     * files relative to the specified property file. The file is parsed through
+     * the shared {@link PropertiesFileCache} and a modifiable copy is returned.
      *
      * @param base
      *            the directory containing the file
      * @param filename
      *            the relative path to the properties file
      * @param processIncludes
-     *            true if {@link #INCLUDES_PROPERTY} statements should be
+     *            true if {@code ${includes}} statements should be
      *            followed; false otherwise.
      * @return the {@link Properties} object created from the contents of
      *         configuration file
@@ -245,108 +224,101 @@ public final class KarafCorePluginUtils {
      *             if there is a problem loading the file
      */
     public static Properties loadProperties(final File base, final String filename, final boolean processIncludes) throws CoreException {
-        final File f = new File(base, filename);
+        final Properties p = new Properties();
+        p.putAll(PropertiesFileCache.getProperties(base, filename, processIncludes));
+        return p;
+    }
 
+    /**
+     * Saves a properties file unless it already contains the same properties
+     *
+     * @param file
+     * @param properties
+     * @see #store(File, Properties, String)
+     */
+    public static void save(final File file, final Properties properties) {
         try {
-            final Properties p = new Properties();
-            p.load(new FileInputStream(f));
-
-            if (processIncludes) {
-                final String includes = p.getProperty(INCLUDES_PROPERTY);
-                if (includes != null) {
-                    final StringTokenizer st = new StringTokenizer(includes, "\" ", true);
-                    if (st.countTokens() > 0) {
-                        String location;
-                        do {
-                            location = nextLocation(st);
-                            if (location != null) {
-                                final Properties includeProps = loadProperties(base, location);
-                                p.putAll(includeProps);
-                            }
-                        } while (location != null);
-                    }
-                    p.remove(INCLUDES_PROPERTY);
-                }
-            }
-
-            return p;
+            store(file, properties, "Configuration File"); //$NON-NLS-1$
         } catch (final IOException e) {
-            final String message = "Unable to load configuration file from configuration directory: " + f.getAbsolutePath();
-            throw new CoreException(new Status(IStatus.ERROR, KarafCorePluginActivator.PLUGIN_ID, IStatus.OK, message, e));
+            KarafCorePluginActivator.getLogger().error("Unable to store properties in: " + file.getAbsolutePath(), e);
         }
-
     }
 
     /**
-     * Saves a properties file
+     * Stores properties in a file if the file does not already contain the
+     * same properties. The properties are written to a temporary file in the
+     * same directory which then replaces the target file, so readers never see
+     * a partially written file and a file whose content does not change keeps
+     * its modification time.<br>
+     * <br>
+     * Java 6 has no atomic move and {@link File#renameTo(File)} does not
+     * replace an existing file on every platform, notably Windows. There the
+     * file is rewritten in place instead, so it never disappears but a reader
+     * may see it partially written.
      *
      * @param file
+     *            the file the properties are stored in
      * @param properties
+     *            the {@link Properties} to store
+     * @param comments
+     *            the comments written at the top of the file
+     * @return true if the file was written; false if it was already up to date
+     * @throws IOException
+     *             if the file could not be written
      */
-    public static void save(final File file, final Properties properties) {
-        FileOutputStream stream = null;
+    public static boolean store(final File file, final Properties properties, final String comments) throws IOException {
+        if (isStored(file, properties)) {
+            return false;
+        }
+
+        final File directory = file.getAbsoluteFile().getParentFile();
+        final File tempFile = File.createTempFile("." + file.getName(), ".tmp", directory);
         try {
-            stream = new FileOutputStream(file);
-            properties.store(stream, "Configuration File"); //$NON-NLS-1$
-            stream.flush();
-        } catch (final IOException e) {
-            KarafCorePluginActivator.getLogger().error("Unable to store properties in: " + file.getAbsolutePath(), e);
-        } finally {
-            if (stream != null) {
+            final FileOutputStream stream = new FileOutputStream(tempFile);
+            try {
+                properties.store(stream, comments);
+                stream.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                // Some platforms do not rename over an existing file; deleting
+                // it first would let readers see the file missing
+                final FileOutputStream out = new FileOutputStream(file);
                 try {
-                    stream.close();
-                } catch (final IOException e) {
-                    // Intentionally left blank
+                    properties.store(out, comments);
+                    out.flush();
+                } finally {
+                    out.close();
                 }
             }
-
+        } finally {
+            if (tempFile.exists() && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
         }
-    }
 
-    private KarafCorePluginUtils() {
-        throw new AssertionError("Cannot instantiate " + KarafCorePluginUtils.class.getName());
+        return true;
     }
 
-    private static String nextLocation(final StringTokenizer st) {
-        String retVal = null;
-
-        if (st.countTokens() > 0) {
-            String tokenList = "\" ";
-            StringBuffer tokBuf = new StringBuffer(10);
-            String tok = null;
-            boolean inQuote = false;
-            boolean tokStarted = false;
-            boolean exit = false;
-            while (st.hasMoreTokens() && !exit) {
-                tok = st.nextToken(tokenList);
-                if (tok.equals("\"")) {
-                    inQuote = !inQuote;
-                    if (inQuote) {
-                        tokenList = "\"";
-                    } else {
-                        tokenList = "\" ";
-                    }
-
-                } else if (tok.equals(" ")) {
-                    if (tokStarted) {
-                        retVal = tokBuf.toString();
-                        tokStarted = false;
-                        tokBuf = new StringBuffer(10);
-                        exit = true;
-                    }
-                } else {
-                    tokStarted = true;
-                    tokBuf.append(tok.trim());
-                }
-            }
+    /**
+     * Determines if a file already contains exactly the specified properties
+     */
+    private static boolean isStored(final File file, final Properties properties) {
+        if (!file.isFile()) {
+            return false;
+        }
 
-            // Handle case where end of token stream and
-            // still got data
-            if (!exit && tokStarted) {
-                retVal = tokBuf.toString();
-            }
+        try {
+            return properties.equals(PropertiesFileCache.getProperties(file.getParentFile(), file.getName(), false));
+        } catch (final CoreException e) {
+            return false;
         }
+    }
 
-        return retVal;
+    private KarafCorePluginUtils() {
+        throw new AssertionError("Cannot instantiate " + KarafCorePluginUtils.class.getName());
     }
 }
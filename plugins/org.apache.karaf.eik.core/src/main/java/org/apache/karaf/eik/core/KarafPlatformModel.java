@@ -22,6 +22,7 @@ import java.util.List;
 
 import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.osgi.service.resolver.BundleDescription;
 import org.eclipse.osgi.service.resolver.State;
 import org.eclipse.pde.core.plugin.IPluginModelBase;
 
@@ -37,6 +38,31 @@ public interface KarafPlatformModel extends IAdaptable {
      */
     public boolean containsPlugin(IPluginModelBase plugin);
 
+    /**
+     * Finds the {@link BundleDescription} in this platform's {@link State}
+     * with the specified location. Unlike
+     * {@link State#getBundleByLocation(String)} this is a hash lookup, so it
+     * should be used whenever bundles are looked up by location.
+     *
+     * @param location
+     *            the bundle location, which is the absolute path of the
+     *            bundle JAR
+     * @return the {@code BundleDescription} or null if the platform has no
+     *         bundle at that location
+     */
+    public BundleDescription getBundleByLocation(String location);
+
+    /**
+     * Returns a fingerprint of the bundle JARs that make up this platform's
+     * {@link State}, computed from their locations, sizes and modification
+     * times. The fingerprint changes whenever a bundle of the platform is
+     * added, updated or removed, so it can be used to validate data derived
+     * from the platform bundles.
+     *
+     * @return the hex encoded fingerprint
+     */
+    public String getPlatformBundlesFingerprint();
+
     /**
      * Gets the list of boot classpath jars for Karaf
      *
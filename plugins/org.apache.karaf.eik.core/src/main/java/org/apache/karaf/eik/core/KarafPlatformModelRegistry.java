@@ -19,18 +19,30 @@
 package org.apache.karaf.eik.core;
 
 import org.apache.karaf.eik.core.internal.KarafCorePluginActivator;
+import org.apache.karaf.eik.core.model.AbstractKarafPlatformModel;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.IExtension;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IRegistryChangeEvent;
+import org.eclipse.core.runtime.IRegistryChangeListener;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.pde.core.plugin.IPluginModelBase;
 import org.eclipse.pde.core.plugin.PluginRegistry;
 
@@ -44,16 +56,241 @@ public final class KarafPlatformModelRegistry {
 
     private static final String TAG_TRIGGER_BUNDLE_ITEMTYPE = "triggerBundle";
 
+    private static final String EXTENSION_POINT_PLATFORM_MODEL = "platformModel";
+
+    /**
+     * The directories of a Karaf installation whose modification times make
+     * up its fingerprint. The bundles of the {@code system} directory are
+     * tracked by the models themselves and configuration files in {@code etc}
+     * are checked individually by the configuration sections and
+     * {@link PropertiesFileCache}, so rewriting a cfg file does not discard
+     * the shared model.
+     */
+    private static final String[] FINGERPRINT_DIRECTORIES = { "", "lib" };
+
     /**
+     * The interval, in milliseconds, at which the bundles of the shared models
+     * are checked for changes while there are listeners. Without listeners
+     * a check is scheduled when a model is looked up, at most once per
+     * interval.
+     */
+    private static final long BUNDLE_POLL_INTERVAL = 5000;
+
+    private static final CopyOnWriteArrayList<PlatformBundleChangeListener> BUNDLE_CHANGE_LISTENERS = new CopyOnWriteArrayList<PlatformBundleChangeListener>();
+
+    private static final Job BUNDLE_MONITOR = new PlatformBundleMonitor();
+
+    /**
+     * The time a bundle check was last scheduled by a lookup while there
+     * were no listeners
+     */
+    private static volatile long lastUnmonitoredCheck = System.currentTimeMillis();
+
+    /**
+     * The shared {@link KarafPlatformModel}s, keyed by the canonical path of
+     * their root directory
+     */
+    private static final Map<String, CachedPlatformModel> PLATFORM_MODELS = new HashMap<String, CachedPlatformModel>();
+
+    /**
+     * The contents of the {@code platformModel} extension point; null until
+     * first use and after the extensions change
+     */
+    private static PlatformModelExtensions platformModelExtensions;
+
+    private static boolean registryChangeListenerAdded;
+
+    private static final Object EXTENSIONS_LOCK = new Object();
+
+    /**
+     * Discards the cached extensions, and with them the cached validation
+     * results, when a {@code platformModel} extension is added or removed
+     */
+    private static final IRegistryChangeListener REGISTRY_CHANGE_LISTENER = new IRegistryChangeListener() {
+
+        @Override
+        public void registryChanged(final IRegistryChangeEvent event) {
+            if (event.getExtensionDeltas(KarafCorePluginActivator.PLUGIN_ID, EXTENSION_POINT_PLATFORM_MODEL).length > 0) {
+                synchronized (EXTENSIONS_LOCK) {
+                    platformModelExtensions = null;
+                }
+            }
+        }
+    };
+
+    /**
+     * The {@link KarafPlatformModelFactory} instances created from the
+     * {@code platformModel} extensions, the trigger bundles that select them
+     * and the results of their platform validators
+     */
+    private static final class PlatformModelExtensions {
+
+        private final Map<IConfigurationElement, KarafPlatformModelFactory> factories =
+            new LinkedHashMap<IConfigurationElement, KarafPlatformModelFactory>();
+
+        private final Map<String, IConfigurationElement> triggerBundles =
+            new LinkedHashMap<String, IConfigurationElement>();
+
+        /**
+         * The platform directory found for each trigger bundle install
+         * location
+         */
+        private final Map<String, ActivePlatform> activePlatforms = new HashMap<String, ActivePlatform>();
+
+        /**
+         * The validation results of each factory, keyed by path
+         */
+        private final Map<KarafPlatformModelFactory, Map<String, Validation>> validations =
+            new IdentityHashMap<KarafPlatformModelFactory, Map<String, Validation>>();
+    }
+
+    /**
+     * The platform directory above a trigger bundle and the factory that
+     * recognized it
+     */
+    private static final class ActivePlatform {
+
+        private final KarafPlatformModelFactory factory;
+
+        private final IPath path;
+
+        private ActivePlatform(final KarafPlatformModelFactory factory, final IPath path) {
+            this.factory = factory;
+            this.path = path;
+        }
+    }
+
+    /**
+     * The result of a platform validator for a path and the fingerprint of
+     * the path at the time
+     */
+    private static final class Validation {
+
+        private final long fingerprint;
+
+        private final boolean valid;
+
+        private Validation(final boolean valid, final long fingerprint) {
+            this.valid = valid;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * A shared {@link KarafPlatformModel} and the fingerprint of the
+     * installation it was created from
+     */
+    private static final class CachedPlatformModel {
+
+        private final long fingerprint;
+
+        private final KarafPlatformModel platformModel;
+
+        private CachedPlatformModel(final KarafPlatformModel platformModel, final long fingerprint) {
+            this.platformModel = platformModel;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Periodically checks the bundles of the shared {@link KarafPlatformModel}s
+     * for changes while there are {@link PlatformBundleChangeListener}s
+     */
+    private static final class PlatformBundleMonitor extends Job {
+
+        private PlatformBundleMonitor() {
+            super("Karaf Platform Bundle Monitor");
+            setSystem(true);
+        }
+
+        /**
+         * Checks the bundles and runs again after the poll interval while
+         * there are listeners. Whether to run again does not depend on the
+         * job having been canceled: the last listener may have been removed
+         * and a new one added while it ran.
+         */
+        @Override
+        protected IStatus run(final IProgressMonitor monitor) {
+            try {
+                refreshPlatformBundles();
+            } finally {
+                if (!BUNDLE_CHANGE_LISTENERS.isEmpty()) {
+                    schedule(BUNDLE_POLL_INTERVAL);
+                }
+            }
+
+            return Status.OK_STATUS;
+        }
+    }
+
+    /**
+     * Registers a listener that is notified when bundle JARs are added to,
+     * changed in or removed from the plugin root or user deployed directory
+     * of a shared {@link KarafPlatformModel}. While at least one listener is
+     * registered the bundles of the shared models are checked periodically.
      *
-     * @return
+     * @param listener
+     *            the {@link PlatformBundleChangeListener} to add
+     */
+    public static void addPlatformBundleChangeListener(final PlatformBundleChangeListener listener) {
+        if (BUNDLE_CHANGE_LISTENERS.addIfAbsent(listener)) {
+            // Runs the monitor again after it finishes if it is running
+            BUNDLE_MONITOR.schedule(BUNDLE_POLL_INTERVAL);
+        }
+    }
+
+    /**
+     * Removes a previously registered {@link PlatformBundleChangeListener}
+     *
+     * @param listener
+     *            the {@link PlatformBundleChangeListener} to remove
+     */
+    public static void removePlatformBundleChangeListener(final PlatformBundleChangeListener listener) {
+        BUNDLE_CHANGE_LISTENERS.remove(listener);
+
+        if (BUNDLE_CHANGE_LISTENERS.isEmpty()) {
+            BUNDLE_MONITOR.cancel();
+        }
+    }
+
+    /**
+     * Checks the bundles of every shared {@link KarafPlatformModel} for
+     * changes, updating their OSGi {@code State}s, and notifies the registered
+     * {@link PlatformBundleChangeListener}s
+     */
+    public static void refreshPlatformBundles() {
+        final List<KarafPlatformModel> platformModels = new ArrayList<KarafPlatformModel>();
+        synchronized (PLATFORM_MODELS) {
+            for (final CachedPlatformModel cached : PLATFORM_MODELS.values()) {
+                platformModels.add(cached.platformModel);
+            }
+        }
+
+        for (final KarafPlatformModel platformModel : platformModels) {
+            try {
+                refreshPlatformBundles(platformModel);
+            } catch (final RuntimeException e) {
+                KarafCorePluginActivator.getLogger().error("Unable to check the bundles of " + platformModel.getRootDirectory(), e);
+            }
+        }
+    }
+
+    /**
+     * Finds the {@link KarafPlatformModel} of the Karaf installation that
+     * contains one of the trigger bundles of the {@code platformModel}
+     * extensions. The installation found above each trigger bundle is
+     * remembered, so once resolved this is a map lookup as long as the
+     * installation is unchanged.
+     *
+     * @return the active {@code KarafPlatformModel} or null if there is none
      * @throws CoreException
+     *             if there is a problem fetching information from the extension
+     *             registry
      */
     public static KarafPlatformModel findActivePlatformModel() throws CoreException {
-        final Map<String, IConfigurationElement> triggerBundleMap =
-            getTriggerBundlePlatformFactoryMap();
+        final PlatformModelExtensions extensions = getPlatformModelExtensions();
 
-        for (Map.Entry<String, IConfigurationElement> e : triggerBundleMap.entrySet()) {
+        for (Map.Entry<String, IConfigurationElement> e : extensions.triggerBundles.entrySet()) {
             final String symbolicName = e.getKey();
 
             IPluginModelBase karafPlatformPlugin = PluginRegistry.findModel(symbolicName);
@@ -62,19 +299,15 @@ public final class KarafPlatformModelRegistry {
                 continue;
             }
 
-            final IConfigurationElement c = e.getValue();
-            final KarafPlatformModelFactory f =
-                (KarafPlatformModelFactory)c.createExecutableExtension(ATT_CLASS);
-
-            final KarafPlatformValidator validator = f.getPlatformValidator();
+            final KarafPlatformModelFactory f = extensions.factories.get(e.getValue());
 
-            IPath modelPath = new Path(karafPlatformPlugin.getInstallLocation()).removeLastSegments(1);
-            while(!modelPath.isEmpty() && !modelPath.isRoot()) {
-                modelPath = modelPath.removeLastSegments(1);
+            final ActivePlatform activePlatform;
+            synchronized (EXTENSIONS_LOCK) {
+                activePlatform = findActivePlatform(extensions, f, karafPlatformPlugin.getInstallLocation());
+            }
 
-                if (validator.isValid(modelPath)) {
-                    return f.getPlatformModel(modelPath);
-                }
+            if (activePlatform != null) {
+                return getPlatformModel(activePlatform.factory, activePlatform.path);
             }
         }
 
@@ -82,32 +315,61 @@ public final class KarafPlatformModelRegistry {
     }
 
     /**
+     * Finds the {@link KarafPlatformModel} of the Karaf installation at the
+     * specified path. Models are shared: the same instance, and therefore the
+     * same OSGi {@code State}, is returned for the same installation until the
+     * modification time of its root or {@code lib} directory changes. Changes
+     * to the bundles are applied to the shared model's {@code State} by
+     * {@link #refreshPlatformBundles()}, or on lookup while there are no
+     * {@link PlatformBundleChangeListener}s to poll for them.
      *
      * @param path
-     * @return
+     *            the root directory of the Karaf installation
+     * @return the {@code KarafPlatformModel} or null if no platform model
+     *         factory recognizes the installation
      * @throws CoreException
+     *             if there is a problem fetching information from the extension
+     *             registry
      */
     public static KarafPlatformModel findPlatformModel(IPath path) throws CoreException {
+        synchronized (PLATFORM_MODELS) {
+            final CachedPlatformModel cached = PLATFORM_MODELS.get(getCanonicalPath(path));
+            if (cached != null && cached.fingerprint == getInstallationFingerprint(path)) {
+                scheduleUnmonitoredCheck();
+                return cached.platformModel;
+            }
+        }
+
         final KarafPlatformModelFactory factory = findPlatformModelFactory(path);
 
         if (factory == null) {
             return null;
         }
 
-        return factory.getPlatformModel(path);
+        return getPlatformModel(factory, path);
     }
 
     /**
+     * Finds the {@link KarafPlatformModelFactory} whose validator accepts the
+     * specified path. Validation results are cached until the modification
+     * time of the path's root or {@code lib} directory changes.
      *
      * @param path
-     * @return
+     *            the root directory of the Karaf installation
+     * @return the {@code KarafPlatformModelFactory} or null if no factory
+     *         recognizes the installation
+     * @throws CoreException
+     *             if there is a problem fetching information from the extension
+     *             registry
      */
     public static KarafPlatformModelFactory findPlatformModelFactory(IPath path) throws CoreException {
-        final List<KarafPlatformModelFactory> factories = getPlatformModelFactories();
+        final PlatformModelExtensions extensions = getPlatformModelExtensions();
 
-        for (KarafPlatformModelFactory f : factories) {
-            if (f.getPlatformValidator().isValid(path)) {
-                return f;
+        synchronized (EXTENSIONS_LOCK) {
+            for (KarafPlatformModelFactory f : extensions.factories.values()) {
+                if (isValid(extensions, f, path)) {
+                    return f;
+                }
             }
         }
 
@@ -124,30 +386,20 @@ public final class KarafPlatformModelRegistry {
      *             registry
      */
     public static List<KarafPlatformModelFactory> getPlatformModelFactories() throws CoreException {
-        final List<KarafPlatformModelFactory> factories =
-            new ArrayList<KarafPlatformModelFactory>();
-
-        final IExtension[] extensions = Platform.getExtensionRegistry()
-                                    .getExtensionPoint(KarafCorePluginActivator.PLUGIN_ID, "platformModel")
-                                    .getExtensions();
-
-        for (IExtension e : extensions) {
-            for (IConfigurationElement c : e.getConfigurationElements()) {
-
-                if (!c.getName().equals(TAG_PLATFORM_MODEL_ITEMTYPE)) {
-                    continue;
-                }
-
-                KarafPlatformModelFactory f =
-                    (KarafPlatformModelFactory)c.createExecutableExtension(ATT_CLASS);
-
-
+        return new ArrayList<KarafPlatformModelFactory>(getPlatformModelExtensions().factories.values());
+    }
 
-                factories.add(f);
-            }
+    /**
+     * Discards the shared {@link KarafPlatformModel} of the Karaf installation
+     * at the specified path so that the next lookup creates a new one
+     *
+     * @param path
+     *            the root directory of the Karaf installation
+     */
+    public static void invalidatePlatformModel(final IPath path) {
+        synchronized (PLATFORM_MODELS) {
+            PLATFORM_MODELS.remove(getCanonicalPath(path));
         }
-
-        return factories;
     }
 
     /**
@@ -169,30 +421,203 @@ public final class KarafPlatformModelRegistry {
      * @throws CoreException
      */
     public static Map<String, IConfigurationElement> getTriggerBundlePlatformFactoryMap() throws CoreException {
-        final Map<String, IConfigurationElement> triggerBundleMap =
-            new LinkedHashMap<String, IConfigurationElement>();
+        return new LinkedHashMap<String, IConfigurationElement>(getPlatformModelExtensions().triggerBundles);
+    }
+
+    private static String getCanonicalPath(final IPath path) {
+        final File file = path.toFile();
+        try {
+            return file.getCanonicalPath();
+        } catch (final IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
 
-        final IExtension[] extensions =
-            Platform.getExtensionRegistry()
-                .getExtensionPoint(KarafCorePluginActivator.PLUGIN_ID, "platformModel")
-                .getExtensions();
+    /**
+     * Returns the cached contents of the {@code platformModel} extension
+     * point, reading the extension registry and creating the factories if
+     * necessary
+     */
+    private static PlatformModelExtensions getPlatformModelExtensions() throws CoreException {
+        synchronized (EXTENSIONS_LOCK) {
+            if (platformModelExtensions != null) {
+                return platformModelExtensions;
+            }
 
-        for (IExtension e : extensions) {
-            for (IConfigurationElement c : e.getConfigurationElements()) {
+            if (!registryChangeListenerAdded) {
+                Platform.getExtensionRegistry().addRegistryChangeListener(REGISTRY_CHANGE_LISTENER, KarafCorePluginActivator.PLUGIN_ID);
+                registryChangeListenerAdded = true;
+            }
 
-                if (!c.getName().equals(TAG_PLATFORM_MODEL_ITEMTYPE)) {
-                    continue;
-                }
+            final PlatformModelExtensions extensions = new PlatformModelExtensions();
 
-                IConfigurationElement[] children = c.getChildren(TAG_TRIGGER_BUNDLE_ITEMTYPE);
-                for (IConfigurationElement tb : children) {
-                    triggerBundleMap.put(tb.getAttribute(ATT_SYMBOLIC_NAME), c);
+            final IExtension[] extensionArray = Platform.getExtensionRegistry()
+                                        .getExtensionPoint(KarafCorePluginActivator.PLUGIN_ID, EXTENSION_POINT_PLATFORM_MODEL)
+                                        .getExtensions();
+
+            for (IExtension e : extensionArray) {
+                for (IConfigurationElement c : e.getConfigurationElements()) {
+
+                    if (!c.getName().equals(TAG_PLATFORM_MODEL_ITEMTYPE)) {
+                        continue;
+                    }
+
+                    final KarafPlatformModelFactory f =
+                        (KarafPlatformModelFactory)c.createExecutableExtension(ATT_CLASS);
+
+                    extensions.factories.put(c, f);
+
+                    IConfigurationElement[] children = c.getChildren(TAG_TRIGGER_BUNDLE_ITEMTYPE);
+                    for (IConfigurationElement tb : children) {
+                        extensions.triggerBundles.put(tb.getAttribute(ATT_SYMBOLIC_NAME), c);
+                    }
                 }
+            }
+
+            platformModelExtensions = extensions;
+            return extensions;
+        }
+    }
+
+    /**
+     * Finds the installation directory above a trigger bundle's install
+     * location, reusing the directory found previously if it is still valid.
+     * Must be called while holding {@code EXTENSIONS_LOCK}.
+     */
+    private static ActivePlatform findActivePlatform(
+            final PlatformModelExtensions extensions,
+            final KarafPlatformModelFactory factory,
+            final String installLocation)
+    {
+        final ActivePlatform cached = extensions.activePlatforms.get(installLocation);
+        if (cached != null && isValid(extensions, cached.factory, cached.path)) {
+            return cached;
+        }
+
+        IPath modelPath = new Path(installLocation).removeLastSegments(1);
+        while(!modelPath.isEmpty() && !modelPath.isRoot()) {
+            modelPath = modelPath.removeLastSegments(1);
+
+            if (isValid(extensions, factory, modelPath)) {
+                final ActivePlatform activePlatform = new ActivePlatform(factory, modelPath);
+                extensions.activePlatforms.put(installLocation, activePlatform);
+                return activePlatform;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Runs the platform validator of a factory for a path unless it has
+     * already been run for the unchanged installation. Must be called while
+     * holding {@code EXTENSIONS_LOCK}.
+     */
+    private static boolean isValid(final PlatformModelExtensions extensions, final KarafPlatformModelFactory factory, final IPath path) {
+        Map<String, Validation> factoryValidations = extensions.validations.get(factory);
+        if (factoryValidations == null) {
+            factoryValidations = new HashMap<String, Validation>();
+            extensions.validations.put(factory, factoryValidations);
+        }
+
+        final String key = path.toOSString();
+        final long fingerprint = getInstallationFingerprint(path);
+
+        final Validation validation = factoryValidations.get(key);
+        if (validation != null && validation.fingerprint == fingerprint) {
+            return validation.valid;
+        }
+
+        final boolean valid = factory.getPlatformValidator().isValid(path);
+        factoryValidations.put(key, new Validation(valid, fingerprint));
+
+        return valid;
+    }
+
+    /**
+     * Schedules a check of the bundles of the shared models unless they are
+     * already being polled for {@link PlatformBundleChangeListener}s or a
+     * check was scheduled within the last {@link #BUNDLE_POLL_INTERVAL}. This
+     * keeps the {@code State}s current in headless use, where nothing
+     * registers a listener, without checking on the thread of the lookup.
+     */
+    private static void scheduleUnmonitoredCheck() {
+        if (!BUNDLE_CHANGE_LISTENERS.isEmpty()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now - lastUnmonitoredCheck < BUNDLE_POLL_INTERVAL) {
+            return;
+        }
 
+        lastUnmonitoredCheck = now;
+        if (BUNDLE_MONITOR.getState() == Job.NONE) {
+            BUNDLE_MONITOR.schedule();
+        }
+    }
+
+    /**
+     * Checks the bundles of a model for changes and notifies the registered
+     * {@link PlatformBundleChangeListener}s
+     */
+    private static void refreshPlatformBundles(final KarafPlatformModel platformModel) {
+        if (!(platformModel instanceof AbstractKarafPlatformModel)) {
+            return;
+        }
+
+        final PlatformBundleChangeEvent event = ((AbstractKarafPlatformModel) platformModel).refreshPlatformBundles();
+        if (event == null) {
+            return;
+        }
+
+        for (final PlatformBundleChangeListener listener : BUNDLE_CHANGE_LISTENERS) {
+            try {
+                listener.platformBundlesChanged(event);
+            } catch (final RuntimeException e) {
+                KarafCorePluginActivator.getLogger().error("Platform bundle change listener failed", e);
             }
         }
+    }
+
+    /**
+     * Computes a fingerprint of a Karaf installation from the modification
+     * times of its top level directories
+     */
+    private static long getInstallationFingerprint(final IPath path) {
+        final File root = path.toFile();
+
+        long fingerprint = 17;
+        for (final String directory : FINGERPRINT_DIRECTORIES) {
+            fingerprint = 31 * fingerprint + new File(root, directory).lastModified();
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * Returns the shared {@link KarafPlatformModel} for an installation,
+     * creating it with the specified factory if there is none or the
+     * installation has changed
+     */
+    private static KarafPlatformModel getPlatformModel(final KarafPlatformModelFactory factory, final IPath path) {
+        final String key = getCanonicalPath(path);
+        final long fingerprint = getInstallationFingerprint(path);
+
+        synchronized (PLATFORM_MODELS) {
+            final CachedPlatformModel cached = PLATFORM_MODELS.get(key);
+            if (cached != null && cached.fingerprint == fingerprint) {
+                scheduleUnmonitoredCheck();
+                return cached.platformModel;
+            }
 
-        return triggerBundleMap;
+            final KarafPlatformModel platformModel = factory.getPlatformModel(path);
+            if (platformModel != null) {
+                PLATFORM_MODELS.put(key, new CachedPlatformModel(platformModel, fingerprint));
+            }
+
+            return platformModel;
+        }
     }
 
 }
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core;
+
+import java.io.File;
+
+/**
+ * Locates the artifacts of {@code mvn:} URLs on the local file system. A Karaf
+ * installation's {@code system/} directory is searched first, followed by the
+ * local Maven repository if there is one.<br>
+ * <br>
+ * {@code LATEST} versions cannot be located on disk since they depend on
+ * repository metadata.
+ */
+public class MvnArtifactLocator {
+
+    private final File systemDirectory;
+
+    private final File localRepository;
+
+    /**
+     * Constructs a locator
+     *
+     * @param systemDirectory
+     *            the Karaf {@code system/} directory, which has the Maven
+     *            repository layout
+     * @param localRepository
+     *            the local Maven repository or null if only the
+     *            {@code system/} directory should be searched
+     */
+    public MvnArtifactLocator(final File systemDirectory, final File localRepository) {
+        this.systemDirectory = systemDirectory;
+        this.localRepository = localRepository;
+    }
+
+    /**
+     * Finds the artifact of a {@code mvn:} URL in the Karaf {@code system/}
+     * directory or the local Maven repository
+     *
+     * @param mvnUrl
+     *            the {@code mvn:} URL
+     * @return the artifact {@link File} or null if it is not available locally
+     */
+    public File findLocalFile(final String mvnUrl) {
+        final MvnCoordinate coordinate = MvnCoordinate.parse(mvnUrl);
+        if (coordinate == null || MvnCoordinate.LATEST_VERSION.equals(coordinate.getVersion())) {
+            return null;
+        }
+
+        final String path = coordinate.getPath();
+
+        final File systemFile = new File(systemDirectory, path);
+        if (systemFile.isFile()) {
+            return systemFile;
+        }
+
+        if (localRepository != null) {
+            final File localFile = new File(localRepository, path);
+            if (localFile.isFile()) {
+                return localFile;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the location an artifact has in the Karaf {@code system/}
+     * directory, whether or not it exists. URLs that are not {@code mvn:}
+     * URLs are treated as paths relative to the {@code system/} directory.
+     *
+     * @param url
+     *            the {@code mvn:} URL or relative path
+     * @return the {@link File} in the {@code system/} directory
+     */
+    public File getSystemFile(final String url) {
+        return new File(systemDirectory, MvnCoordinate.toPath(url));
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The coordinates of a Maven artifact parsed from a PAX URL {@code mvn:} URL:
+ *
+ * <pre>
+ * mvn:[repository-url!]groupId/artifactId[/[version][/[type][/classifier]]]
+ * </pre>
+ *
+ * The repository URL may carry {@code @snapshots}, {@code @noreleases} and
+ * {@code @id=...} options. An absent version is {@value #LATEST_VERSION} and
+ * an absent type is {@value #DEFAULT_TYPE}.
+ * <p>
+ * Instances are immutable and interned by URL, so parsing the same URL again
+ * returns the same instance and its repository-relative path is only computed
+ * once.
+ */
+public final class MvnCoordinate {
+
+    public static final String DEFAULT_TYPE = "jar";
+
+    public static final String LATEST_VERSION = "LATEST";
+
+    public static final String MVN_URL_PREFIX = "mvn:";
+
+    private static final int MAX_INTERNED_COORDINATES = 8192;
+
+    private static final ConcurrentMap<String, MvnCoordinate> COORDINATES =
+            new ConcurrentHashMap<String, MvnCoordinate>(256);
+
+    /**
+     * Parses a {@code mvn:} URL
+     *
+     * @param url
+     *            the URL to parse
+     * @return the interned {@link MvnCoordinate} or null if the URL is not a
+     *         valid {@code mvn:} URL
+     */
+    public static MvnCoordinate parse(final String url) {
+        if (url == null || !url.startsWith(MVN_URL_PREFIX)) {
+            return null;
+        }
+
+        final MvnCoordinate interned = COORDINATES.get(url);
+        if (interned != null) {
+            return interned;
+        }
+
+        final MvnCoordinate coordinate = doParse(url);
+        if (coordinate == null) {
+            return null;
+        }
+
+        if (COORDINATES.size() >= MAX_INTERNED_COORDINATES) {
+            COORDINATES.clear();
+        }
+
+        final MvnCoordinate existing = COORDINATES.putIfAbsent(url, coordinate);
+        return existing != null ? existing : coordinate;
+    }
+
+    /**
+     * Converts a {@code mvn:} URL to the path of its artifact relative to the
+     * root of a Maven repository layout such as the Karaf {@code system/}
+     * directory. Any other URL is returned unchanged.
+     *
+     * @param url
+     *            the URL
+     * @return the repository-relative path of the artifact or the URL itself
+     */
+    public static String toPath(final String url) {
+        final MvnCoordinate coordinate = parse(url);
+        if (coordinate == null) {
+            return url;
+        }
+
+        return coordinate.getPath();
+    }
+
+    private static MvnCoordinate doParse(final String url) {
+        int start = MVN_URL_PREFIX.length();
+
+        String repository = null;
+        final int repositorySeparator = url.lastIndexOf('!');
+        if (repositorySeparator >= start) {
+            repository = url.substring(start, repositorySeparator);
+            start = repositorySeparator + 1;
+        }
+
+        final String[] parts = new String[5];
+        int count = 0;
+        while (true) {
+            if (count == parts.length) {
+                // More segments than the grammar allows
+                return null;
+            }
+
+            final int end = url.indexOf('/', start);
+            if (end < 0) {
+                parts[count++] = url.substring(start);
+                break;
+            }
+
+            parts[count++] = url.substring(start, end);
+            start = end + 1;
+        }
+
+        if (count < 2 || parts[0].length() == 0 || parts[1].length() == 0) {
+            return null;
+        }
+
+        final String version = count > 2 && parts[2].length() > 0 ? parts[2] : LATEST_VERSION;
+        final String type = count > 3 && parts[3].length() > 0 ? parts[3] : DEFAULT_TYPE;
+        final String classifier = count > 4 && parts[4].length() > 0 ? parts[4] : null;
+
+        return new MvnCoordinate(repository, parts[0], parts[1], version, type, classifier);
+    }
+
+    private final String artifactId;
+
+    private final String classifier;
+
+    private final String groupId;
+
+    private volatile String path;
+
+    private final String repository;
+
+    private final String type;
+
+    private final String version;
+
+    private MvnCoordinate(
+            final String repository,
+            final String groupId,
+            final String artifactId,
+            final String version,
+            final String type,
+            final String classifier)
+    {
+        this.repository = repository;
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.type = type;
+        this.classifier = classifier;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof MvnCoordinate)) {
+            return false;
+        }
+
+        final MvnCoordinate other = (MvnCoordinate) obj;
+        return groupId.equals(other.groupId)
+                && artifactId.equals(other.artifactId)
+                && version.equals(other.version)
+                && type.equals(other.type)
+                && (classifier == null ? other.classifier == null : classifier.equals(other.classifier))
+                && (repository == null ? other.repository == null : repository.equals(other.repository));
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    /**
+     * Getter for the classifier
+     *
+     * @return the classifier or null if there is none
+     */
+    public String getClassifier() {
+        return classifier;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    /**
+     * Returns the path of the artifact relative to the root of a Maven
+     * repository, using {@code /} as the separator:
+     * {@code group/path/artifactId/version/artifactId-version[-classifier].type}
+     *
+     * @return the repository-relative path
+     */
+    public String getPath() {
+        String p = path;
+        if (p == null) {
+            final StringBuilder sb = new StringBuilder(groupId.length() + 2 * artifactId.length() + 2 * version.length() + 16);
+            sb.append(groupId.replace('.', '/')).append('/');
+            sb.append(artifactId).append('/');
+            sb.append(version).append('/');
+            sb.append(artifactId).append('-').append(version);
+            if (classifier != null) {
+                sb.append('-').append(classifier);
+            }
+
+            sb.append('.').append(type);
+
+            p = sb.toString();
+            path = p;
+        }
+
+        return p;
+    }
+
+    /**
+     * Getter for the repository URL, including any {@code @} options
+     *
+     * @return the repository URL or null if the artifact is resolved from the
+     *         configured repositories
+     */
+    public String getRepository() {
+        return repository;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = groupId.hashCode();
+        result = 31 * result + artifactId.hashCode();
+        result = 31 * result + version.hashCode();
+        result = 31 * result + type.hashCode();
+        result = 31 * result + (classifier == null ? 0 : classifier.hashCode());
+        return result;
+    }
+
+    /**
+     * Determines whether the version of this artifact is a snapshot
+     *
+     * @return true if the version ends with {@code -SNAPSHOT}
+     */
+    public boolean isSnapshot() {
+        return version.endsWith("SNAPSHOT");
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(MVN_URL_PREFIX);
+        if (repository != null) {
+            sb.append(repository).append('!');
+        }
+
+        sb.append(groupId).append('/').append(artifactId).append('/').append(version);
+        if (classifier != null || !DEFAULT_TYPE.equals(type)) {
+            sb.append('/').append(type);
+        }
+
+        if (classifier != null) {
+            sb.append('/').append(classifier);
+        }
+
+        return sb.toString();
+    }
+
+}
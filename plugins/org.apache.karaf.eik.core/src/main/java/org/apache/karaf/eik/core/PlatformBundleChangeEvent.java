@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.List;
+
+/**
+ * Describes the bundle JARs that were added to, changed in or removed from
+ * the plugin root or user deployed directory of a {@link KarafPlatformModel}.
+ * The model's OSGi {@code State} has already been updated for the bundles in
+ * the plugin root directory when the event is delivered.
+ */
+public class PlatformBundleChangeEvent extends EventObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<File> addedBundles;
+
+    private final List<File> changedBundles;
+
+    private final List<File> removedBundles;
+
+    public PlatformBundleChangeEvent(
+            final KarafPlatformModel platformModel,
+            final List<File> addedBundles,
+            final List<File> changedBundles,
+            final List<File> removedBundles)
+    {
+        super(platformModel);
+
+        this.addedBundles = Collections.unmodifiableList(addedBundles);
+        this.changedBundles = Collections.unmodifiableList(changedBundles);
+        this.removedBundles = Collections.unmodifiableList(removedBundles);
+    }
+
+    /**
+     * Getter for the bundle JARs that did not exist before
+     *
+     * @return the unmodifiable {@link List} of added bundle JARs
+     */
+    public List<File> getAddedBundles() {
+        return addedBundles;
+    }
+
+    /**
+     * Getter for the bundle JARs whose size or modification time changed
+     *
+     * @return the unmodifiable {@link List} of changed bundle JARs
+     */
+    public List<File> getChangedBundles() {
+        return changedBundles;
+    }
+
+    /**
+     * Getter for the {@link KarafPlatformModel} whose bundles changed
+     *
+     * @return the {@code KarafPlatformModel}
+     */
+    public KarafPlatformModel getPlatformModel() {
+        return (KarafPlatformModel) getSource();
+    }
+
+    /**
+     * Getter for the bundle JARs that no longer exist
+     *
+     * @return the unmodifiable {@link List} of removed bundle JARs
+     */
+    public List<File> getRemovedBundles() {
+        return removedBundles;
+    }
+
+    /**
+     * Determines if the bundles of the platform's plugin root directory, and
+     * therefore its OSGi {@code State}, changed
+     *
+     * @return true if a bundle in the plugin root directory changed
+     */
+    public boolean isPlatformStateChanged() {
+        final String pluginRoot = getPlatformModel().getPluginRootDirectory().toFile().getAbsolutePath() + File.separator;
+
+        return containsBundleBelow(addedBundles, pluginRoot)
+            || containsBundleBelow(changedBundles, pluginRoot)
+            || containsBundleBelow(removedBundles, pluginRoot);
+    }
+
+    private static boolean containsBundleBelow(final List<File> bundles, final String directory) {
+        for (final File bundle : bundles) {
+            if (bundle.getAbsolutePath().startsWith(directory)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -16,21 +16,26 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-package org.apache.karaf.eik.core.features;
+package org.apache.karaf.eik.core;
 
-
-import org.apache.commons.collections.Predicate;
+import java.util.EventListener;
 
 /**
- * A {@link Predicate} implementation that evaluates to {@code true} if the
- * supplied input is a {@link Feature}
+ * Receives notification of changes to the bundle JARs of the
+ * {@link KarafPlatformModel}s shared through the
+ * {@link KarafPlatformModelRegistry}.
  *
+ * @see KarafPlatformModelRegistry#addPlatformBundleChangeListener(PlatformBundleChangeListener)
  */
-final class FeatureOnlyPredicate implements Predicate {
+public interface PlatformBundleChangeListener extends EventListener {
 
-    @Override
-    public boolean evaluate(final Object element) {
-        return element instanceof Feature;
-    }
+    /**
+     * Notifies this listener that bundle JARs of a platform changed. This is
+     * called from a background thread.
+     *
+     * @param event
+     *            the {@link PlatformBundleChangeEvent} describing the change
+     */
+    public void platformBundlesChanged(PlatformBundleChangeEvent event);
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core;
+
+import org.apache.karaf.eik.core.internal.KarafCorePluginActivator;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Loads properties files, following {@code ${includes}} directives, and
+ * caches the result. A cached result is reused as long as none of the files
+ * that were read to produce it, the file itself and everything it includes,
+ * has a different modification time or size.<br>
+ * <br>
+ * Included files are resolved relative to the directory of the including
+ * file, are loaded recursively and their properties override those of the
+ * including file. The {@code ${includes}} property itself is removed.
+ */
+public final class PropertiesFileCache {
+
+    private static final String INCLUDES_PROPERTY = "${includes}";
+
+    private static final int MAX_CACHED_FILES = 64;
+
+    /**
+     * Files modified this recently may be modified again without their
+     * modification time changing, so results containing them are not cached
+     */
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000;
+
+    private static final Map<String, CachedProperties> CACHE = new LinkedHashMap<String, CachedProperties>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedProperties> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    };
+
+    /**
+     * The loaded properties and the modification times and sizes of the files
+     * they were loaded from
+     */
+    private static final class CachedProperties {
+
+        private final List<File> files;
+
+        private final long[] lastModified;
+
+        private final long[] length;
+
+        private final Map<String, String> properties;
+
+        private CachedProperties(final Map<String, String> properties, final List<File> files) {
+            this.properties = properties;
+            this.files = files;
+            this.lastModified = new long[files.size()];
+            this.length = new long[files.size()];
+
+            for (int i = 0; i < files.size(); i++) {
+                lastModified[i] = files.get(i).lastModified();
+                length[i] = files.get(i).length();
+            }
+        }
+
+        private boolean isCurrent() {
+            for (int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                if (file.lastModified() != lastModified[i] || file.length() != length[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean isCacheable(final long readTime) {
+            for (final long modified : lastModified) {
+                if (isRacilyModified(modified, readTime)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Returns the properties of a file relative to the specified base
+     * directory
+     *
+     * @param base
+     *            the directory containing the file
+     * @param filename
+     *            the relative path to the properties file
+     * @param processIncludes
+     *            true if {@code ${includes}} directives should be followed;
+     *            false otherwise
+     * @return an unmodifiable {@link Map} of the properties
+     * @throws CoreException
+     *             if the file or one of the files it includes cannot be read
+     */
+    public static Map<String, String> getProperties(final File base, final String filename, final boolean processIncludes) throws CoreException {
+        final File file = normalize(new File(base, filename));
+        final String key = file.getAbsolutePath() + File.pathSeparatorChar + processIncludes;
+
+        synchronized (CACHE) {
+            final CachedProperties cached = CACHE.get(key);
+            if (cached != null && cached.isCurrent()) {
+                return cached.properties;
+            }
+        }
+
+        final long readTime = System.currentTimeMillis();
+
+        final List<File> files = new ArrayList<File>();
+        final Map<String, String> properties = new HashMap<String, String>();
+        load(file, processIncludes, properties, files);
+
+        final CachedProperties loaded = new CachedProperties(Collections.unmodifiableMap(properties), files);
+        if (loaded.isCacheable(readTime)) {
+            synchronized (CACHE) {
+                CACHE.put(key, loaded);
+            }
+        }
+
+        return loaded.properties;
+    }
+
+    /**
+     * Determines if a file that was read at the specified time may have been
+     * modified again since then without its modification time changing,
+     * because it was last modified within the resolution of file system
+     * timestamps before it was read
+     *
+     * @param lastModified
+     *            the modification time of the file when it was read
+     * @param readTime
+     *            the time at which the file was read
+     * @return true if the file has to be read again to be sure it is current
+     */
+    public static boolean isRacilyModified(final long lastModified, final long readTime) {
+        return lastModified > readTime - MODIFICATION_TIME_RESOLUTION;
+    }
+
+    /**
+     * Discards all cached properties
+     */
+    public static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    private static void load(final File file, final boolean processIncludes, final Map<String, String> properties, final List<File> files) throws CoreException {
+        if (files.contains(file)) {
+            return;
+        }
+
+        files.add(file);
+
+        final Properties p = new Properties();
+
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            p.load(in);
+        } catch (final IOException e) {
+            final String message = "Unable to load configuration file from configuration directory: " + file.getAbsolutePath();
+            throw new CoreException(new Status(IStatus.ERROR, KarafCorePluginActivator.PLUGIN_ID, IStatus.OK, message, e));
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        String includes = null;
+        if (processIncludes) {
+            includes = p.getProperty(INCLUDES_PROPERTY);
+            p.remove(INCLUDES_PROPERTY);
+        }
+
+        for (final String name : p.stringPropertyNames()) {
+            properties.put(name, p.getProperty(name));
+        }
+
+        if (includes != null) {
+            final StringTokenizer st = new StringTokenizer(includes, "\" ", true);
+            String location;
+            while ((location = nextLocation(st)) != null) {
+                File includedFile = new File(location);
+                if (!includedFile.isAbsolute()) {
+                    includedFile = new File(file.getParentFile(), location);
+                }
+
+                load(normalize(includedFile), processIncludes, properties, files);
+            }
+        }
+    }
+
+    /**
+     * Normalizes a file so that includes reaching the same file through
+     * different relative paths are recognized
+     */
+    private static File normalize(final File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (final IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private static String nextLocation(final StringTokenizer st) {
+        String retVal = null;
+
+        if (st.countTokens() > 0) {
+            String tokenList = "\" ";
+            StringBuffer tokBuf = new StringBuffer(10);
+            String tok = null;
+            boolean inQuote = false;
+            boolean tokStarted = false;
+            boolean exit = false;
+            while (st.hasMoreTokens() && !exit) {
+                tok = st.nextToken(tokenList);
+                if (tok.equals("\"")) {
+                    inQuote = !inQuote;
+                    if (inQuote) {
+                        tokenList = "\"";
+                    } else {
+                        tokenList = "\" ";
+                    }
+
+                } else if (tok.equals(" ")) {
+                    if (tokStarted) {
+                        retVal = tokBuf.toString();
+                        tokStarted = false;
+                        tokBuf = new StringBuffer(10);
+                        exit = true;
+                    }
+                } else {
+                    tokStarted = true;
+                    tokBuf.append(tok.trim());
+                }
+            }
+
+            // Handle case where end of token stream and
+            // still got data
+            if (!exit && tokStarted) {
+                retVal = tokBuf.toString();
+            }
+        }
+
+        return retVal;
+    }
+
+    private PropertiesFileCache() {
+        throw new AssertionError("Cannot instantiate " + PropertiesFileCache.class.getName());
+    }
+
+}
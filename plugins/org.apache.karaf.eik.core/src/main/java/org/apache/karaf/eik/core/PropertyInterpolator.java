@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Resolves {@code ${name}} variables against a set of configuration
+ * properties, falling back to system properties and then to the empty
+ * string. Variables may be nested, e.g. {@code ${outer.${inner}}}.
+ * <p>
+ * Each value is tokenized once in to literals and variable references. A
+ * referenced property is resolved depth first before the value that refers to
+ * it, so the properties are resolved in dependency order and every result is
+ * memoized; each value is then built with a single {@link StringBuilder}. A
+ * reference back to a property that is still being resolved is a cycle and is
+ * reported with an {@link IllegalArgumentException}.
+ * <p>
+ * Instances are not thread safe and are meant to be used for one
+ * interpolation pass over a set of properties.
+ */
+final class PropertyInterpolator {
+
+    private static final String DELIM_START = "${";
+
+    private static final char DELIM_STOP = '}';
+
+    /**
+     * A {@code ${...}} reference; the name itself may contain references
+     */
+    private static final class Variable {
+
+        private final List<Object> nameParts;
+
+        private Variable(final List<Object> nameParts) {
+            this.nameParts = nameParts;
+        }
+    }
+
+    private final Properties configProps;
+
+    /**
+     * The resolved value of each variable referenced so far
+     */
+    private final Map<String, String> resolved = new HashMap<String, String>();
+
+    /**
+     * The variables currently being resolved, used to detect cycles
+     */
+    private final Set<String> resolving = new HashSet<String>();
+
+    /**
+     * @param configProps
+     *            the configuration properties variables are resolved against
+     *            or null to only use system properties
+     */
+    PropertyInterpolator(final Properties configProps) {
+        this.configProps = configProps;
+    }
+
+    /**
+     * Substitutes the variables in a value
+     *
+     * @param value
+     *            the value
+     * @param currentKey
+     *            the key of the value, which the value must not refer to
+     * @param pendingKeys
+     *            further keys the value must not refer to or null
+     * @return the value with all variables substituted
+     * @throws IllegalArgumentException
+     *             if the value has unbalanced delimiters or a recursive
+     *             variable reference
+     */
+    String interpolate(final String value, final String currentKey, final Collection<String> pendingKeys) {
+        if (!containsDelimiter(value)) {
+            return value;
+        }
+
+        final List<Object> parts = compile(value);
+
+        resolving.add(currentKey);
+        if (pendingKeys != null) {
+            resolving.addAll(pendingKeys);
+        }
+
+        try {
+            final StringBuilder sb = new StringBuilder(value.length() + 64);
+            append(parts, sb);
+            return sb.toString();
+        } finally {
+            resolving.remove(currentKey);
+            if (pendingKeys != null) {
+                resolving.removeAll(pendingKeys);
+            }
+        }
+    }
+
+    private void append(final List<Object> parts, final StringBuilder sb) {
+        for (final Object part : parts) {
+            if (part instanceof String) {
+                sb.append((String) part);
+            } else {
+                sb.append(resolve(getName((Variable) part)));
+            }
+        }
+    }
+
+    private String getName(final Variable variable) {
+        if (variable.nameParts.size() == 1 && variable.nameParts.get(0) instanceof String) {
+            return (String) variable.nameParts.get(0);
+        }
+
+        final StringBuilder name = new StringBuilder();
+        append(variable.nameParts, name);
+        return name.toString();
+    }
+
+    /**
+     * Resolves a variable from the configuration properties, then the system
+     * properties, substituting the variables in its value
+     */
+    private String resolve(final String name) {
+        if (resolving.contains(name)) {
+            throw new IllegalArgumentException("recursive variable reference: " + name);
+        }
+
+        String value = resolved.get(name);
+        if (value != null) {
+            return value;
+        }
+
+        String rawValue = configProps != null ? configProps.getProperty(name, null) : null;
+        if (rawValue == null) {
+            // Ignore unknown property values.
+            rawValue = System.getProperty(name, "");
+        }
+
+        if (containsDelimiter(rawValue)) {
+            resolving.add(name);
+            try {
+                final StringBuilder sb = new StringBuilder(rawValue.length() + 64);
+                append(compile(rawValue), sb);
+                value = sb.toString();
+            } finally {
+                resolving.remove(name);
+            }
+        } else {
+            value = rawValue;
+        }
+
+        resolved.put(name, value);
+        return value;
+    }
+
+    private static boolean containsDelimiter(final String value) {
+        return value.indexOf(DELIM_START) >= 0 || value.indexOf(DELIM_STOP) >= 0;
+    }
+
+    /**
+     * Tokenizes a value in to {@code String} literals and {@link Variable}s
+     */
+    private static List<Object> compile(final String value) {
+        final List<Object> parts = new ArrayList<Object>();
+        compile(value, 0, parts, false);
+        return parts;
+    }
+
+    /**
+     * Tokenizes a value from the specified position up to the end of the
+     * value or, when nested, up to the matching stop delimiter
+     *
+     * @return the position after the last character consumed
+     */
+    private static int compile(final String value, final int start, final List<Object> parts, final boolean nested) {
+        int literalStart = start;
+        int pos = start;
+        while (pos < value.length()) {
+            final char c = value.charAt(pos);
+            if (c == DELIM_START.charAt(0) && value.startsWith(DELIM_START, pos)) {
+                addLiteral(value, literalStart, pos, parts);
+
+                final List<Object> nameParts = new ArrayList<Object>();
+                pos = compile(value, pos + DELIM_START.length(), nameParts, true);
+                parts.add(new Variable(nameParts));
+
+                literalStart = pos;
+            } else if (c == DELIM_STOP) {
+                if (!nested) {
+                    throw new IllegalArgumentException("stop delimiter with no start delimiter: " + value);
+                }
+
+                addLiteral(value, literalStart, pos, parts);
+                return pos + 1;
+            } else {
+                pos++;
+            }
+        }
+
+        if (nested) {
+            throw new IllegalArgumentException("start delimiter with no stop delimiter: " + value);
+        }
+
+        addLiteral(value, literalStart, pos, parts);
+        return pos;
+    }
+
+    private static void addLiteral(final String value, final int start, final int end, final List<Object> parts) {
+        if (end > start) {
+            parts.add(value.substring(start, end));
+        }
+    }
+
+}
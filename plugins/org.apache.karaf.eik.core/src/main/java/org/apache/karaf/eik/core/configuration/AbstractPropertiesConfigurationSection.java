@@ -18,23 +18,55 @@
  */
 package org.apache.karaf.eik.core.configuration;
 
+import org.apache.karaf.eik.core.KarafCorePluginUtils;
 import org.apache.karaf.eik.core.KarafPlatformModel;
+import org.apache.karaf.eik.core.PropertiesFileCache;
 import org.apache.karaf.eik.core.internal.KarafCorePluginActivator;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.Properties;
 
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 
+/**
+ * A {@link ConfigurationSection} backed by a properties file. Platform models
+ * keep one instance of each section, so {@link #load()} only reads the file
+ * when it has not been read yet, its modification time or size changed since
+ * it was last read or written, or the section was modified in memory. Loading
+ * therefore always discards unsaved modifications.<br>
+ * <br>
+ * Loading, saving and modifying a section is synchronized on the section.
+ */
 abstract public class AbstractPropertiesConfigurationSection extends AbstractConfigurationSection {
 
     private Properties properties;
 
+    /**
+     * The modification time of the file when it was last read or written
+     */
+    private long lastModified = -1;
+
+    /**
+     * The size of the file when it was last read or written
+     */
+    private long length = -1;
+
+    /**
+     * The time at which the file was last read or written
+     */
+    private long readTime;
+
+    /**
+     * True if the properties were modified since the file was last read or
+     * written
+     */
+    private boolean dirty;
+
     /**
      * @see AbstractConfigurationSection#AbstractConfigurationSection(String,
      *      String, KarafPlatformModel)
@@ -44,13 +76,13 @@ abstract public class AbstractPropertiesConfigurationSection extends AbstractCon
         super(id, filename, parent);
     }
 
-    public IStatus load() {
+    public synchronized IStatus load() {
         loadProperties();
 
         return Status.OK_STATUS;
     }
 
-    public IStatus save() {
+    public synchronized IStatus save() {
         saveProperties();
 
         return Status.OK_STATUS;
@@ -61,36 +93,94 @@ abstract public class AbstractPropertiesConfigurationSection extends AbstractCon
      *
      * @return the {@link Properties} backing this object
      */
-    protected Properties getProperties() {
+    protected synchronized Properties getProperties() {
         return properties;
     }
 
     /**
-     * Loads the properties for this configuration section
+     * Sets a property of this configuration section. The change is discarded
+     * by the next {@link #load()} unless it is saved first.
+     *
+     * @param key
+     *            the property key
+     * @param value
+     *            the property value
      */
-    protected void loadProperties() {
+    protected synchronized void putProperty(final String key, final String value) {
+        properties.setProperty(key, value);
+        dirty = true;
+    }
+
+    /**
+     * Determines if the file backing this configuration section has to be
+     * read, either because it has not been read yet, because the properties
+     * were modified in memory or because the file may have changed since it
+     * was last read or written
+     *
+     * @return true if the next {@link #loadProperties()} reads the file
+     */
+    protected synchronized boolean isModified() {
+        if (properties == null || dirty) {
+            return true;
+        }
+
+        final File file = getParent().getConfigurationFile(getFilename()).toFile();
+
+        return file.lastModified() != lastModified
+            || file.length() != length
+            || PropertiesFileCache.isRacilyModified(lastModified, readTime);
+    }
+
+    /**
+     * Loads the properties for this configuration section unless the file is
+     * unchanged since it was last read or written
+     */
+    protected synchronized void loadProperties() {
+        if (!isModified()) {
+            return;
+        }
+
         final IPath path = getParent().getConfigurationFile(getFilename());
+        final File file = path.toFile();
 
+        InputStream in = null;
         try {
-            final InputStream in = new FileInputStream(path.toFile());
+            final long fileReadTime = System.currentTimeMillis();
+            final long fileLastModified = file.lastModified();
+            final long fileLength = file.length();
+
+            in = new FileInputStream(file);
 
-            properties = new Properties();
-            properties.load(in);
+            final Properties loadedProperties = new Properties();
+            loadedProperties.load(in);
 
-            in.close();
+            properties = loadedProperties;
+            lastModified = fileLastModified;
+            length = fileLength;
+            readTime = fileReadTime;
+            dirty = false;
         } catch (Exception e) {
             KarafCorePluginActivator.getLogger().error(
                             "Unable to load configuration file: " + path.toOSString(), e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                    // ignore
+                }
+            }
         }
     }
 
     /**
      * Saves the properties for this configuration section if the parent model
-     * is not read-only.<br>
+     * is not read-only. The file is left untouched if it already contains the
+     * same properties.<br>
      * <br>
      * If the parent model is read-only this method does nothing.
      */
-    protected void saveProperties() {
+    protected synchronized void saveProperties() {
         if (getParent().isReadOnly()) {
             KarafCorePluginActivator.getLogger().info(
                             "Attempting to write to read-only target platform: "
@@ -101,11 +191,14 @@ abstract public class AbstractPropertiesConfigurationSection extends AbstractCon
         final IPath path = getParent().getConfigurationFile(getFilename());
 
         try {
-            final OutputStream out = new FileOutputStream(path.toFile());
-            properties.store(out, getId());
+            final long writeTime = System.currentTimeMillis();
+
+            KarafCorePluginUtils.store(path.toFile(), properties, getId());
 
-            out.flush();
-            out.close();
+            lastModified = path.toFile().lastModified();
+            length = path.toFile().length();
+            readTime = writeTime;
+            dirty = false;
         } catch (Exception e) {
             KarafCorePluginActivator.getLogger().error(
                             "Unable to save configuration file: " + path.toOSString(), e);
@@ -118,8 +211,11 @@ abstract public class AbstractPropertiesConfigurationSection extends AbstractCon
      * @param p
      *            the {@link Properties} that will back this object
      */
-    protected void setProperties(Properties p) {
+    protected synchronized void setProperties(Properties p) {
         this.properties = p;
+        this.lastModified = -1;
+        this.length = -1;
+        this.dirty = true;
     }
 
 }
@@ -71,17 +71,17 @@ public class FeaturesSectionImpl extends AbstractPropertiesConfigurationSection
     }
 
     @Override
-    public void setBootFeatureNames(final List<String> bootFeatures) {
+    public synchronized void setBootFeatureNames(final List<String> bootFeatures) {
         final String property = KarafCorePluginUtils.join(bootFeatures, ",");
 
-        getProperties().setProperty(FEATURES_BOOT_KEY, property);
+        putProperty(FEATURES_BOOT_KEY, property);
     }
 
     @Override
-    public void setRepositoryList(final List<String> featuresRepositories) {
+    public synchronized void setRepositoryList(final List<String> featuresRepositories) {
         final String property = KarafCorePluginUtils.join(featuresRepositories, ",");
 
-        getProperties().setProperty(FEATURES_REPOSITORIES_KEY, property);
+        putProperty(FEATURES_REPOSITORIES_KEY, property);
     }
 
 }
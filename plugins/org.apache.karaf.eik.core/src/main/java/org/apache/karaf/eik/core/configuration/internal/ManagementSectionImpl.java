@@ -60,9 +60,9 @@ public class ManagementSectionImpl extends AbstractPropertiesConfigurationSectio
     }
 
     @Override
-    public void setPort(final int port) {
-        getProperties().setProperty("rmiRegistryPort", new Integer(port).toString());
-        getProperties().setProperty("serviceUrl", makeJMXUrl(new Integer(port).toString()));
+    public synchronized void setPort(final int port) {
+        putProperty("rmiRegistryPort", new Integer(port).toString());
+        putProperty("serviceUrl", makeJMXUrl(new Integer(port).toString()));
     }
 
     private String makeJMXUrl(final String port) {
@@ -19,6 +19,7 @@
 package org.apache.karaf.eik.core.configuration.internal;
 
 import org.apache.karaf.eik.core.KarafPlatformModel;
+import org.apache.karaf.eik.core.MvnArtifactLocator;
 import org.apache.karaf.eik.core.configuration.AbstractPropertiesConfigurationSection;
 import org.apache.karaf.eik.core.configuration.StartupSection;
 import org.apache.karaf.eik.core.internal.KarafCorePluginActivator;
@@ -28,6 +29,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.osgi.service.resolver.BundleDescription;
 
 public class StartupSectionImpl extends AbstractPropertiesConfigurationSection implements
@@ -66,6 +68,12 @@ public class StartupSectionImpl extends AbstractPropertiesConfigurationSection i
      */
     private final Map<String, BundleStartEntry> startupStateModel;
 
+    /**
+     * The fingerprint of the platform bundles whose {@link BundleDescription}s
+     * are in the startup state model
+     */
+    private String platformBundlesFingerprint;
+
     /**
      * Constructor. This will build the necessary data objects to support
      * querying the Karaf target platform startup state model.
@@ -79,11 +87,11 @@ public class StartupSectionImpl extends AbstractPropertiesConfigurationSection i
         this.startupStateModel = new LinkedHashMap<String, BundleStartEntry>(64);
     }
 
-    public boolean containsPlugin(String bundleSymbolicName) {
+    public synchronized boolean containsPlugin(String bundleSymbolicName) {
         return startupStateModel.containsKey(bundleSymbolicName);
     }
 
-    public String getStartLevel(String bundleSymbolicName) {
+    public synchronized String getStartLevel(String bundleSymbolicName) {
         final BundleStartEntry se = startupStateModel.get(bundleSymbolicName);
 
         if (se == null) {
@@ -95,59 +103,44 @@ public class StartupSectionImpl extends AbstractPropertiesConfigurationSection i
 
     /**
      * Loads the startup configuration and then initializes the bundle startup
-     * state from the processed configuration.
+     * state from the processed configuration. Nothing is done if neither the
+     * startup configuration nor the platform bundles changed since it was
+     * last loaded; a change to the platform bundles replaces the
+     * {@link BundleDescription}s in the platform's state.
      *
      * @return {@link IStatus#OK} if successful, {@link IStatus#ERROR} otherwise
      */
     @Override
-    public IStatus load() {
+    public synchronized IStatus load() {
+        final String fingerprint = getParent().getPlatformBundlesFingerprint();
+        if (!isModified() && fingerprint.equals(platformBundlesFingerprint)) {
+            return Status.OK_STATUS;
+        }
+
         final IStatus status = super.load();
 
+        startupStateModel.clear();
         populateStartupStateModel();
+        platformBundlesFingerprint = fingerprint;
 
         return status;
     }
 
-    /**
-     * Converts a MVN url to a file path, relative to System.
-     * Code taken from MvnUrlConverter from UI plugin.
-     * TODO: move class MvnUrlConverter inside core plugin and use it
-     * as dependency from UI plugin.
-     */
-    protected String getPath(String url) {
-        if (url != null) {
-            if (url.startsWith("mvn:")) {
-                url = url.substring(4);
-                String[] repositorySplit = url.split("!");
-                String urlWithoutRepository = repositorySplit[repositorySplit.length - 1];
-
-                String[] segments = urlWithoutRepository.split("/");
-                if (segments.length >= 3) {
-                    String groupId = segments[0];
-                    String artifactId = segments[1];
-                    String version = segments[2];
-
-                    return groupId.replace(".", "/") + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".jar";
-                }
-            }
-        }
-
-        return url;
-    }
-
     /**
      * Populates the startup state model with the {@link BundleDescriptions} of
      * the bundles found in the startup configuration.
      */
     protected void populateStartupStateModel() {
-        final File rootBundleDir = getParent().getPluginRootDirectory().toFile();
+        final MvnArtifactLocator artifactLocator = new MvnArtifactLocator(getParent().getPluginRootDirectory().toFile(), null);
         for (Object o : getProperties().keySet()) {
             // In karaf-3.0.0, mvn urls are sored instead of raw paths.
             // Then first try to convert mvn urls to raw path.
-            final File bundleLocation = new File(rootBundleDir, getPath((String) o));
+            File bundleLocation = artifactLocator.findLocalFile((String) o);
+            if (bundleLocation == null) {
+                bundleLocation = artifactLocator.getSystemFile((String) o);
+            }
 
-            final BundleDescription desc = getParent().getState().getBundleByLocation(
-                    bundleLocation.getAbsolutePath());
+            final BundleDescription desc = getParent().getBundleByLocation(bundleLocation.getAbsolutePath());
 
             if (desc == null) {
                 KarafCorePluginActivator.getLogger().error(
@@ -41,7 +41,7 @@ public class SystemSectionImpl extends AbstractPropertiesConfigurationSection im
     }
 
     public void setProperty(String key, String value) {
-        getProperties().setProperty(key, value);
+        putProperty(key, value);
     }
 
 }
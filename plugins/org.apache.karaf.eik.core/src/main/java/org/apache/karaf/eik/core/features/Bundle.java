@@ -25,13 +25,31 @@ import org.jdom.Element;
 
 public final class Bundle implements ParentAwareObject<Object> {
 
+    private static final Transformer ELEMENT_TRANSFORMER = new ElementTransformer();
+
     private final String bundleUrl;
 
     private final String startLevel;
 
     private final Element element;
 
+    private volatile Object parent;
+
     public Bundle(final Element element) {
+        this(element, null);
+    }
+
+    /**
+     * Creates a {@code Bundle} backed by a DOM {@link Element} whose parent
+     * model object is already known
+     *
+     * @param element
+     *            the {@code <bundle>} element
+     * @param parent
+     *            the {@link Feature} that contains this bundle or null
+     *            if it should be resolved from the DOM
+     */
+    Bundle(final Element element, final Object parent) {
         bundleUrl = element.getValue();
         if (bundleUrl == null) {
             throw new IllegalArgumentException("bundle element is invalid: " + element.toString());
@@ -40,6 +58,28 @@ public final class Bundle implements ParentAwareObject<Object> {
         this.startLevel = element.getAttributeValue("start-level");
 
         this.element = element;
+        this.parent = parent;
+    }
+
+    /**
+     * Creates a {@code Bundle} that is not backed by a DOM {@link Element}
+     *
+     * @param bundleUrl
+     *            the location of the bundle
+     * @param startLevel
+     *            the start level of the bundle; may be null
+     * @param parent
+     *            the {@link Feature} that contains this bundle
+     */
+    Bundle(final String bundleUrl, final String startLevel, final Object parent) {
+        if (bundleUrl == null) {
+            throw new NullPointerException("bundleUrl");
+        }
+
+        this.bundleUrl = bundleUrl;
+        this.startLevel = startLevel;
+        this.parent = parent;
+        this.element = null;
     }
 
     public String getBundleUrl() {
@@ -53,8 +93,13 @@ public final class Bundle implements ParentAwareObject<Object> {
 
     @Override
     public Object getParent() {
-        final Transformer transformer = new ElementTransformer();
-        return transformer.transform(element.getParentElement());
+        Object result = parent;
+        if (result == null && element != null) {
+            result = ELEMENT_TRANSFORMER.transform(element.getParentElement());
+            parent = result;
+        }
+
+        return result;
     }
 
     @Override
@@ -18,20 +18,19 @@
  */
 package org.apache.karaf.eik.core.features;
 
-import org.apache.karaf.eik.core.KarafCorePluginUtils;
 import org.apache.karaf.eik.core.features.internal.ElementTransformer;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import org.apache.commons.collections.Predicate;
 import org.apache.commons.collections.Transformer;
-import org.apache.commons.collections.list.TransformedList;
 import org.jdom.Element;
 
 public final class Feature implements ParentAwareObject<Object> {
 
+    private static final Transformer ELEMENT_TRANSFORMER = new ElementTransformer();
+
     private final String name;
 
     private final String version;
@@ -40,14 +39,31 @@ public final class Feature implements ParentAwareObject<Object> {
 
     private final String startLevel;
 
-    private static final class BundleOnlyPredicate implements Predicate {
-        @Override
-        public boolean evaluate(final Object element) {
-            return element instanceof Bundle;
-        }
-    }
+    /**
+     * The parent of this feature; for {@link Element} backed features that are
+     * not created by their parent this is resolved lazily
+     */
+    private volatile Object parent;
+
+    private volatile List<Bundle> bundles;
+
+    private volatile List<Feature> features;
 
     public Feature(final Element element) {
+        this(element, null);
+    }
+
+    /**
+     * Creates a {@code Feature} backed by a DOM {@link Element} whose parent
+     * model object is already known
+     *
+     * @param element
+     *            the {@code <feature>} element
+     * @param parent
+     *            the {@link Features} or {@code Feature} that contains this
+     *            feature or null if it should be resolved from the DOM
+     */
+    Feature(final Element element, final Object parent) {
         if (element.getAttribute("name") != null) {
             name = element.getAttributeValue("name");
         } else {
@@ -55,10 +71,37 @@ public final class Feature implements ParentAwareObject<Object> {
         }
 
         version = element.getAttributeValue("version");
-  
+
         startLevel = element.getAttributeValue("start-level");
 
         this.element = element;
+        this.parent = parent;
+    }
+
+    /**
+     * Creates a {@code Feature} that is not backed by a DOM {@link Element}.
+     * The children of the feature are supplied once they have been read via
+     * {@link #setChildren(List, List)}.
+     *
+     * @param name
+     *            the name of the feature
+     * @param version
+     *            the version of the feature; may be null
+     * @param startLevel
+     *            the start level of the feature's bundles; may be null
+     * @param parent
+     *            the {@link Features} or {@code Feature} containing this
+     *            feature
+     */
+    Feature(final String name, final String version, final String startLevel, final Object parent) {
+        this.name = name;
+        this.version = version;
+        this.startLevel = startLevel;
+        this.parent = parent;
+        this.element = null;
+
+        this.bundles = Collections.emptyList();
+        this.features = Collections.emptyList();
     }
 
     @Override
@@ -101,8 +144,13 @@ public final class Feature implements ParentAwareObject<Object> {
 
     @Override
     public Object getParent() {
-        final Transformer transformer = new ElementTransformer();
-        return transformer.transform(element.getParentElement());
+        Object result = parent;
+        if (result == null && element != null) {
+            result = ELEMENT_TRANSFORMER.transform(element.getParentElement());
+            parent = result;
+        }
+
+        return result;
     }
 
     public String getVersion() {
@@ -120,26 +168,49 @@ public final class Feature implements ParentAwareObject<Object> {
         return sb.toString();
     }
 
-    @SuppressWarnings("unchecked")
     public List<Bundle> getBundles() {
-        final List<Bundle> rawList = new ArrayList<Bundle>();
-        final List<Bundle> transformedList = TransformedList.decorate(rawList, new ElementTransformer());
-        transformedList.addAll(element.getChildren());
+        List<Bundle> result = bundles;
+        if (result == null) {
+            final List<Bundle> children = new ArrayList<Bundle>();
+            for (final Object child : element.getChildren()) {
+                final Element childElement = (Element) child;
+                if (childElement.getName().equalsIgnoreCase("bundle")) {
+                    children.add(new Bundle(childElement, this));
+                }
+            }
+
+            result = Collections.unmodifiableList(children);
+            bundles = result;
+        }
 
-        return Collections.unmodifiableList(KarafCorePluginUtils.filterList(transformedList, new BundleOnlyPredicate()));
+        return result;
     }
 
-    @SuppressWarnings("unchecked")
     public List<Feature> getFeatures() {
-        final List<Feature> rawList = new ArrayList<Feature>();
-        final List<Feature> transformedList = TransformedList.decorate(rawList, new ElementTransformer());
-        transformedList.addAll(element.getChildren());
+        List<Feature> result = features;
+        if (result == null) {
+            final List<Feature> children = new ArrayList<Feature>();
+            for (final Object child : element.getChildren()) {
+                final Element childElement = (Element) child;
+                if (childElement.getName().equalsIgnoreCase("feature")) {
+                    children.add(new Feature(childElement, this));
+                }
+            }
 
-        return Collections.unmodifiableList(KarafCorePluginUtils.filterList(transformedList, new FeatureOnlyPredicate()));
+            result = Collections.unmodifiableList(children);
+            features = result;
+        }
+
+        return result;
     }
 
     public String getStartLevel() {
         return startLevel;
     }
 
+    void setChildren(final List<Feature> features, final List<Bundle> bundles) {
+        this.features = Collections.unmodifiableList(features);
+        this.bundles = Collections.unmodifiableList(bundles);
+    }
+
 }
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core.features;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the complete set of {@link Bundle}s required by a {@link Feature},
+ * including the bundles of every feature it references through nested
+ * {@code <feature>} elements.<br>
+ * <br>
+ * The closure of each feature is computed once and memoized, so after the
+ * first request for a set of features subsequent requests only merge already
+ * computed lists. Bundles are deduplicated by location, keeping the first
+ * occurrence, and the bundles of referenced features precede the bundles of
+ * the feature that references them.
+ */
+public class FeatureClosureResolver {
+
+    private final FeatureResolverImpl featureResolver;
+
+    /**
+     * The memoized closure of each feature; features are compared by identity
+     * since {@link Feature#equals(Object)} ignores the version
+     */
+    private final Map<Feature, List<Bundle>> closures = new IdentityHashMap<Feature, List<Bundle>>();
+
+    /**
+     * The memoized closure of each requested list of feature names
+     */
+    private final Map<List<String>, List<Bundle>> featureSetClosures = new HashMap<List<String>, List<Bundle>>();
+
+    public FeatureClosureResolver(final FeatureResolverImpl featureResolver) {
+        if (featureResolver == null) {
+            throw new NullPointerException("featureResolver");
+        }
+
+        this.featureResolver = featureResolver;
+    }
+
+    public FeatureClosureResolver(final Collection<FeaturesRepository> repositories) {
+        this(new FeatureResolverImpl(repositories));
+    }
+
+    /**
+     * Getter for the {@link FeatureResolverImpl} used to resolve feature
+     * references
+     *
+     * @return the {@code FeatureResolverImpl}
+     */
+    public FeatureResolverImpl getFeatureResolver() {
+        return featureResolver;
+    }
+
+    /**
+     * Returns the transitive set of {@link Bundle}s for the specified
+     * {@link Feature}
+     *
+     * @param feature
+     *            the {@code Feature}
+     * @return the unmodifiable, deduplicated list of bundles required by the
+     *         feature
+     * @throws IllegalStateException
+     *             if the feature references itself, directly or indirectly
+     */
+    public synchronized List<Bundle> getBundles(final Feature feature) {
+        return resolve(feature, new ArrayList<Feature>());
+    }
+
+    /**
+     * Returns the transitive set of {@link Bundle}s for the named features,
+     * typically the {@code featuresBoot} list of a Karaf installation. Each
+     * name may carry a version or version range separated by a {@code /}
+     * (e.g. {@code webconsole/[2.2,3)}). Names that cannot be resolved are
+     * ignored.
+     *
+     * @param featureNames
+     *            the feature names
+     * @return the unmodifiable, deduplicated list of bundles required by the
+     *         features
+     * @throws IllegalStateException
+     *             if one of the features references itself, directly or
+     *             indirectly
+     */
+    public synchronized List<Bundle> getBundles(final Collection<String> featureNames) {
+        final List<String> key = new ArrayList<String>(featureNames);
+
+        List<Bundle> result = featureSetClosures.get(key);
+        if (result == null) {
+            final Map<String, Bundle> bundles = new LinkedHashMap<String, Bundle>();
+            for (final String featureName : key) {
+                final Feature feature = findFeature(featureName);
+                if (feature != null) {
+                    addAll(bundles, resolve(feature, new ArrayList<Feature>()));
+                }
+            }
+
+            result = Collections.unmodifiableList(new ArrayList<Bundle>(bundles.values()));
+            featureSetClosures.put(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Resolves a feature name of the form {@code name[/version]}
+     */
+    private Feature findFeature(final String featureName) {
+        final String trimmedName = featureName.trim();
+        if (trimmedName.length() == 0) {
+            return null;
+        }
+
+        final int separator = trimmedName.indexOf('/');
+        if (separator < 0) {
+            return featureResolver.findFeature(trimmedName);
+        } else {
+            return featureResolver.findFeature(
+                    trimmedName.substring(0, separator),
+                    trimmedName.substring(separator + 1));
+        }
+    }
+
+    /**
+     * Depth first computation of the closure of a feature
+     *
+     * @param feature
+     *            the feature to resolve
+     * @param path
+     *            the features currently being resolved, used to detect cycles
+     * @return the memoized closure of the feature
+     */
+    private List<Bundle> resolve(final Feature feature, final List<Feature> path) {
+        final List<Bundle> memoized = closures.get(feature);
+        if (memoized != null) {
+            return memoized;
+        }
+
+        for (final Feature f : path) {
+            if (f == feature) {
+                throw new IllegalStateException("Cycle detected in feature references: " + describeCycle(path, feature));
+            }
+        }
+
+        path.add(feature);
+
+        final Map<String, Bundle> bundles = new LinkedHashMap<String, Bundle>();
+        for (final Feature reference : feature.getFeatures()) {
+            final Feature dependency = featureResolver.findFeature(reference.getName(), reference.getVersion());
+            if (dependency != null) {
+                addAll(bundles, resolve(dependency, path));
+            }
+        }
+
+        addAll(bundles, feature.getBundles());
+
+        path.remove(path.size() - 1);
+
+        final List<Bundle> closure = Collections.unmodifiableList(new ArrayList<Bundle>(bundles.values()));
+        closures.put(feature, closure);
+
+        return closure;
+    }
+
+    private static void addAll(final Map<String, Bundle> bundles, final List<Bundle> toAdd) {
+        for (final Bundle b : toAdd) {
+            if (!bundles.containsKey(b.getBundleUrl())) {
+                bundles.put(b.getBundleUrl(), b);
+            }
+        }
+    }
+
+    private static String describeCycle(final List<Feature> path, final Feature feature) {
+        final StringBuilder sb = new StringBuilder();
+        boolean inCycle = false;
+        for (final Feature f : path) {
+            if (f == feature) {
+                inCycle = true;
+            }
+
+            if (inCycle) {
+                sb.append(f.getName()).append(" -> ");
+            }
+        }
+
+        sb.append(feature.getName());
+        return sb.toString();
+    }
+
+}
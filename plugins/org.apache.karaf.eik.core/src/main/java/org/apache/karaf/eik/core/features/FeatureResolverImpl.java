@@ -18,42 +18,177 @@
  */
 package org.apache.karaf.eik.core.features;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
+import org.eclipse.osgi.service.resolver.VersionRange;
+import org.osgi.framework.Version;
+
+/**
+ * Resolves {@link Feature}s by name and, optionally, version against a fixed
+ * set of {@link FeaturesRepository}s. The repositories are indexed once when
+ * the resolver is constructed so that each lookup is a hash lookup followed by
+ * a walk over the, typically very few, versions of a single feature.
+ */
 public class FeatureResolverImpl {
 
-    private final List<FeaturesRepository> featuresRepositories = new ArrayList<FeaturesRepository>();
+    /**
+     * The path from a {@link FeaturesRepository} to one of its {@link Feature}s
+     */
+    private static final class FeaturePath {
+
+        private final FeaturesRepository repository;
+
+        private final Feature feature;
+
+        FeaturePath(final FeaturesRepository repository, final Feature feature) {
+            this.repository = repository;
+            this.feature = feature;
+        }
+
+        Object[] toArray() {
+            return new Object[] { repository, repository.getFeatures(), feature };
+        }
+    }
+
+    private static final Object[] EMPTY_PATH = new Object[0];
+
+    /**
+     * Index of feature name to the versions of that feature. Where more than
+     * one repository declares the same name and version the first wins.
+     */
+    private final Map<String, NavigableMap<Version, FeaturePath>> featureIndex =
+        new HashMap<String, NavigableMap<Version, FeaturePath>>();
 
     public FeatureResolverImpl(final Collection<FeaturesRepository> repositories) {
-        featuresRepositories.addAll(repositories);
+        for (final FeaturesRepository r : repositories) {
+            for (final Feature f : r.getFeatures().getFeatures()) {
+                if (f.getName() == null) {
+                    continue;
+                }
+
+                NavigableMap<Version, FeaturePath> versions = featureIndex.get(f.getName());
+                if (versions == null) {
+                    versions = new TreeMap<Version, FeaturePath>();
+                    featureIndex.put(f.getName(), versions);
+                }
+
+                final Version version = parseVersion(f.getVersion());
+                if (!versions.containsKey(version)) {
+                    versions.put(version, new FeaturePath(r, f));
+                }
+            }
+        }
     }
 
+    /**
+     * Finds the highest version of the named {@link Feature}
+     *
+     * @param featureName
+     *            the name of the feature
+     * @return the {@code Feature} or null if there is no such feature
+     */
     public Feature findFeature(final String featureName) {
-        final Object[] path = getFeaturePath(featureName);
+        return findFeature(featureName, null);
+    }
 
-        if (path.length > 0) {
-            return (Feature) path[path.length - 1];
-        } else {
-            return null;
-        }
+    /**
+     * Finds the named {@link Feature} that matches the specified version
+     *
+     * @param featureName
+     *            the name of the feature
+     * @param version
+     *            an exact version, an OSGi version range (e.g.
+     *            {@code [2.0,3.0)}) or null, empty or {@code 0.0.0} to match
+     *            the highest available version
+     * @return the {@code Feature} or null if there is no matching feature
+     */
+    public Feature findFeature(final String featureName, final String version) {
+        final FeaturePath path = lookup(featureName, version);
+        return path != null ? path.feature : null;
     }
 
+    /**
+     * Returns the path to the highest version of the named {@link Feature}
+     *
+     * @param featureName
+     *            the name of the feature
+     * @return the {@link FeaturesRepository}, {@link Features} and
+     *         {@code Feature} leading to the feature or an empty array if
+     *         there is no such feature
+     */
     public Object[] getFeaturePath(final String featureName) {
-        final List<Object> path = new ArrayList<Object>();
+        return getFeaturePath(featureName, null);
+    }
 
-        for (final FeaturesRepository r : featuresRepositories) {
-            for (final Feature f : r.getFeatures().getFeatures()) {
-                if (f.getName().equals(featureName)) {
-                    path.addAll(Arrays.asList(r, r.getFeatures(), f));
-                    return path.toArray();
+    /**
+     * Returns the path to the named {@link Feature} that matches the specified
+     * version
+     *
+     * @param featureName
+     *            the name of the feature
+     * @param version
+     *            the version or version range; see
+     *            {@link #findFeature(String, String)}
+     * @return the {@link FeaturesRepository}, {@link Features} and
+     *         {@code Feature} leading to the feature or an empty array if
+     *         there is no matching feature
+     */
+    public Object[] getFeaturePath(final String featureName, final String version) {
+        final FeaturePath path = lookup(featureName, version);
+        return path != null ? path.toArray() : EMPTY_PATH;
+    }
+
+    private FeaturePath lookup(final String featureName, final String version) {
+        final NavigableMap<Version, FeaturePath> versions = featureIndex.get(featureName);
+        if (versions == null) {
+            return null;
+        }
+
+        final String trimmedVersion = version == null ? "" : version.trim();
+        if (trimmedVersion.length() == 0 || trimmedVersion.equals(Version.emptyVersion.toString())) {
+            return versions.lastEntry().getValue();
+        }
+
+        final char first = trimmedVersion.charAt(0);
+        if (first == '[' || first == '(') {
+            final VersionRange range;
+            try {
+                range = new VersionRange(trimmedVersion);
+            } catch (final IllegalArgumentException e) {
+                return null;
+            }
+
+            for (final Map.Entry<Version, FeaturePath> e : versions.descendingMap().entrySet()) {
+                if (range.isIncluded(e.getKey())) {
+                    return e.getValue();
                 }
             }
+
+            return null;
         }
 
-        return path.toArray();
+        return versions.get(parseVersion(trimmedVersion));
+    }
+
+    /**
+     * Parses a feature version, treating missing or malformed versions (e.g.
+     * unfiltered {@code ${project.version}} placeholders) as
+     * {@link Version#emptyVersion}
+     */
+    private static Version parseVersion(final String version) {
+        if (version == null) {
+            return Version.emptyVersion;
+        }
+
+        try {
+            return Version.parseVersion(version.trim());
+        } catch (final IllegalArgumentException e) {
+            return Version.emptyVersion;
+        }
     }
 
 }
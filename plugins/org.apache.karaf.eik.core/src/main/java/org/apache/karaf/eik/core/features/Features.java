@@ -18,14 +18,10 @@
  */
 package org.apache.karaf.eik.core.features;
 
-import org.apache.karaf.eik.core.KarafCorePluginUtils;
-import org.apache.karaf.eik.core.features.internal.ElementTransformer;
-
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import org.apache.commons.collections.list.TransformedList;
 import org.jdom.Element;
 
 public final class Features implements ParentAwareObject<FeaturesRepository> {
@@ -36,12 +32,35 @@ public final class Features implements ParentAwareObject<FeaturesRepository> {
 
     private final String name;
 
+    private volatile List<Feature> features;
+
+    private volatile List<Repository> repositories;
+
     public Features(final Element element, final FeaturesRepository featuresRepository) {
         this.name = element.getAttributeValue("name");
         this.element = element;
         this.featuresRepository = featuresRepository;
     }
 
+    /**
+     * Creates a {@code Features} that is not backed by a DOM {@link Element}.
+     * The children are supplied once they have been read via
+     * {@link #setChildren(List, List)}.
+     *
+     * @param name
+     *            the name of the features repository; may be null
+     * @param featuresRepository
+     *            the {@link FeaturesRepository} that owns this object
+     */
+    Features(final String name, final FeaturesRepository featuresRepository) {
+        this.name = name;
+        this.element = null;
+        this.featuresRepository = featuresRepository;
+
+        this.features = Collections.emptyList();
+        this.repositories = Collections.emptyList();
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (this == obj) {
@@ -68,13 +87,22 @@ public final class Features implements ParentAwareObject<FeaturesRepository> {
         return true;
     }
 
-    @SuppressWarnings("unchecked")
     public List<Feature> getFeatures() {
-        final List<Feature> rawList = new ArrayList<Feature>();
-        final List<Feature> transformedList = TransformedList.decorate(rawList, new ElementTransformer());
-        transformedList.addAll(element.getChildren());
+        List<Feature> result = features;
+        if (result == null) {
+            final List<Feature> children = new ArrayList<Feature>();
+            for (final Object child : element.getChildren()) {
+                final Element childElement = (Element) child;
+                if (childElement.getName().equalsIgnoreCase("feature")) {
+                    children.add(new Feature(childElement, this));
+                }
+            }
+
+            result = Collections.unmodifiableList(children);
+            features = result;
+        }
 
-        return Collections.unmodifiableList(KarafCorePluginUtils.filterList(transformedList, new FeatureOnlyPredicate()));
+        return result;
     }
 
     public String getName() {
@@ -86,13 +114,22 @@ public final class Features implements ParentAwareObject<FeaturesRepository> {
         return featuresRepository;
     }
 
-    @SuppressWarnings("unchecked")
     public List<Repository> getRepositories() {
-        final List<Repository> rawList = new ArrayList<Repository>();
-        final List<Repository> transformedList = TransformedList.decorate(rawList, new ElementTransformer());
-        transformedList.addAll(element.getChildren());
+        List<Repository> result = repositories;
+        if (result == null) {
+            final List<Repository> children = new ArrayList<Repository>();
+            for (final Object child : element.getChildren()) {
+                final Element childElement = (Element) child;
+                if (childElement.getName().equalsIgnoreCase("repository")) {
+                    children.add(new Repository(childElement, this));
+                }
+            }
 
-        return Collections.unmodifiableList(KarafCorePluginUtils.filterList(transformedList, new RepositoryOnlyPredicate()));
+            result = Collections.unmodifiableList(children);
+            repositories = result;
+        }
+
+        return result;
     }
 
     @Override
@@ -105,7 +142,16 @@ public final class Features implements ParentAwareObject<FeaturesRepository> {
 
     @Override
     public String toString() {
+        if (element == null) {
+            return String.valueOf(name);
+        }
+
         return element.toString();
     }
 
+    void setChildren(final List<Feature> features, final List<Repository> repositories) {
+        this.features = Collections.unmodifiableList(features);
+        this.repositories = Collections.unmodifiableList(repositories);
+    }
+
 }
\ No newline at end of file
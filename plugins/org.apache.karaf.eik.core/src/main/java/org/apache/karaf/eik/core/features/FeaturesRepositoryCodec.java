@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core.features;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes a {@link StaxFeaturesRepository} in a compact binary form
+ * so that a features repository that has been parsed once can be restored
+ * without parsing the XML document again.<br>
+ * <br>
+ * The binary form contains the original document bytes, so that
+ * {@link FeaturesRepository#write(java.io.OutputStream)} still reproduces the
+ * document exactly, followed by the features model. Strings in the model are
+ * written once and referenced by index afterwards since versions, start
+ * levels and Maven group identifiers repeat heavily.
+ */
+public final class FeaturesRepositoryCodec {
+
+    /**
+     * "KFR" followed by the format version
+     */
+    private static final int MAGIC = 0x4B465201;
+
+    private static final int NULL_STRING = -1;
+
+    private static final int NEW_STRING = -2;
+
+    /**
+     * Writes strings, replacing those already written with their index
+     */
+    private static final class StringTableWriter {
+
+        private final Map<String, Integer> table = new HashMap<String, Integer>();
+
+        private final DataOutput out;
+
+        StringTableWriter(final DataOutput out) {
+            this.out = out;
+        }
+
+        void write(final String s) throws IOException {
+            if (s == null) {
+                out.writeInt(NULL_STRING);
+                return;
+            }
+
+            final Integer index = table.get(s);
+            if (index != null) {
+                out.writeInt(index.intValue());
+            } else {
+                table.put(s, Integer.valueOf(table.size()));
+
+                final byte[] bytes = s.getBytes("UTF-8");
+                out.writeInt(NEW_STRING);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Reads strings written by a {@link StringTableWriter}
+     */
+    private static final class StringTableReader {
+
+        private final List<String> table = new ArrayList<String>();
+
+        private final DataInput in;
+
+        StringTableReader(final DataInput in) {
+            this.in = in;
+        }
+
+        String read() throws IOException {
+            final int index = in.readInt();
+            if (index == NULL_STRING) {
+                return null;
+            } else if (index == NEW_STRING) {
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+
+                final String s = new String(bytes, "UTF-8");
+                table.add(s);
+                return s;
+            } else if (index >= 0 && index < table.size()) {
+                return table.get(index);
+            } else {
+                throw new IOException("Invalid string reference in features repository data: " + index);
+            }
+        }
+    }
+
+    /**
+     * Writes the specified {@link StaxFeaturesRepository} to a
+     * {@link DataOutput}
+     *
+     * @param repository
+     *            the repository to write
+     * @param out
+     *            the {@code DataOutput}
+     * @throws IOException
+     *             if there is a problem writing the repository
+     */
+    public static void write(final StaxFeaturesRepository repository, final DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeUTF(repository.getName());
+
+        final byte[] content = repository.getContent();
+        out.writeInt(content.length);
+        out.write(content);
+
+        final StringTableWriter strings = new StringTableWriter(out);
+
+        final Features features = repository.getFeatures();
+        strings.write(features.getName());
+
+        out.writeInt(features.getRepositories().size());
+        for (final Repository r : features.getRepositories()) {
+            strings.write(r.getRepositoryUrl());
+        }
+
+        out.writeInt(features.getFeatures().size());
+        for (final Feature f : features.getFeatures()) {
+            strings.write(f.getName());
+            strings.write(f.getVersion());
+            strings.write(f.getStartLevel());
+
+            out.writeInt(f.getBundles().size());
+            for (final Bundle b : f.getBundles()) {
+                strings.write(b.getBundleUrl());
+                strings.write(b.getStartLevel());
+            }
+
+            out.writeInt(f.getFeatures().size());
+            for (final Feature reference : f.getFeatures()) {
+                strings.write(reference.getName());
+                strings.write(reference.getVersion());
+                strings.write(reference.getStartLevel());
+            }
+        }
+    }
+
+    /**
+     * Reads a {@link StaxFeaturesRepository} previously written by
+     * {@link #write(StaxFeaturesRepository, DataOutput)}
+     *
+     * @param in
+     *            the {@link DataInput}
+     * @return the {@code StaxFeaturesRepository}
+     * @throws IOException
+     *             if there is a problem reading the data or the data is not a
+     *             features repository written by this class
+     */
+    public static StaxFeaturesRepository read(final DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Unsupported features repository data");
+        }
+
+        final String repositoryName = in.readUTF();
+
+        final byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+
+        return new StaxFeaturesRepository(repositoryName, content, in);
+    }
+
+    /**
+     * Reads the features model of a repository
+     *
+     * @param in
+     *            the {@link DataInput} positioned after the document content
+     * @param repository
+     *            the repository that will own the model
+     * @return the root {@link Features} of the model
+     * @throws IOException
+     *             if there is a problem reading the data
+     */
+    static Features readFeatures(final DataInput in, final FeaturesRepository repository) throws IOException {
+        final StringTableReader strings = new StringTableReader(in);
+
+        final Features features = new Features(strings.read(), repository);
+
+        final int repositoryCount = in.readInt();
+        final List<Repository> repositories = new ArrayList<Repository>(repositoryCount);
+        for (int i = 0; i < repositoryCount; i++) {
+            repositories.add(new Repository(strings.read(), features));
+        }
+
+        final int featureCount = in.readInt();
+        final List<Feature> featureList = new ArrayList<Feature>(featureCount);
+        for (int i = 0; i < featureCount; i++) {
+            final Feature feature = new Feature(strings.read(), strings.read(), strings.read(), features);
+
+            final int bundleCount = in.readInt();
+            final List<Bundle> bundles = new ArrayList<Bundle>(bundleCount);
+            for (int j = 0; j < bundleCount; j++) {
+                bundles.add(new Bundle(strings.read(), strings.read(), feature));
+            }
+
+            final int referenceCount = in.readInt();
+            final List<Feature> references = new ArrayList<Feature>(referenceCount);
+            for (int j = 0; j < referenceCount; j++) {
+                references.add(new Feature(strings.read(), strings.read(), strings.read(), feature));
+            }
+
+            feature.setChildren(references, bundles);
+            featureList.add(feature);
+        }
+
+        features.setChildren(featureList, repositories);
+        return features;
+    }
+
+    private FeaturesRepositoryCodec() {
+        throw new AssertionError("Cannot instantiate " + FeaturesRepositoryCodec.class.getName());
+    }
+
+}
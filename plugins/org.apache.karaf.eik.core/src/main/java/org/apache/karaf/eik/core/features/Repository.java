@@ -27,23 +27,65 @@ import org.jdom.Element;
 
 public final class Repository implements ParentAwareObject<Object> {
 
+    private static final Transformer ELEMENT_TRANSFORMER = new ElementTransformer();
+
     private final Element element;
 
     private final String repositoryUrl;
 
+    private volatile Object parent;
+
     public Repository(final Element element) {
+        this(element, null);
+    }
+
+    /**
+     * Creates a {@code Repository} backed by a DOM {@link Element} whose parent
+     * model object is already known
+     *
+     * @param element
+     *            the {@code <repository>} element
+     * @param parent
+     *            the {@link Features} that contains this reference or null
+     *            if it should be resolved from the DOM
+     */
+    Repository(final Element element, final Object parent) {
         repositoryUrl = element.getValue();
         if (repositoryUrl == null) {
             throw new IllegalArgumentException("repository element is invalid: " + element.toString());
         }
 
         this.element = element;
+        this.parent = parent;
+    }
+
+    /**
+     * Creates a {@code Repository} that is not backed by a DOM {@link Element}
+     *
+     * @param repositoryUrl
+     *            the URL of the referenced features repository
+     * @param parent
+     *            the {@link Features} that contains this reference
+     */
+    Repository(final String repositoryUrl, final Object parent) {
+        if (repositoryUrl == null) {
+            throw new NullPointerException("repositoryUrl");
+        }
+
+        this.repositoryUrl = repositoryUrl;
+        this.parent = parent;
+        this.element = null;
     }
 
     @Override
     public Object getParent() {
-        final Transformer transformer = new ElementTransformer();
-        return transformer.transform(element.getParentElement());
+        Object result = parent;
+        if (result == null && element != null) {
+            result = ELEMENT_TRANSFORMER.transform(element.getParentElement());
+            parent = result;
+        }
+
+        return result;
     }
 
     public String getRepositoryUrl() {
@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core.features;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A {@link FeaturesRepository} that reads a Karaf features XML document in a
+ * single streaming pass. Unlike {@link XmlFeaturesRepository} no DOM is kept
+ * around: the {@link Features}, {@link Feature}, {@link Bundle} and
+ * {@link Repository} objects hold only the values read from the document and
+ * the original bytes are retained so that {@link #write(OutputStream)}
+ * reproduces the document exactly.
+ */
+public class StaxFeaturesRepository implements FeaturesRepository {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private final byte[] content;
+
+    private final Features features;
+
+    private final String repositoryName;
+
+    public StaxFeaturesRepository(final String repositoryName, final InputStream inputStream) throws IOException {
+        if (repositoryName == null) {
+            throw new NullPointerException("repositoryName");
+        }
+
+        if (inputStream == null) {
+            throw new NullPointerException("inputStream");
+        }
+
+        this.repositoryName = repositoryName;
+        this.content = readFully(inputStream);
+
+        try {
+            this.features = parse();
+        } catch (final XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a repository from previously parsed content, reading the model
+     * from its binary form instead of parsing the document again
+     *
+     * @see FeaturesRepositoryCodec
+     */
+    StaxFeaturesRepository(final String repositoryName, final byte[] content, final DataInput model) throws IOException {
+        this.repositoryName = repositoryName;
+        this.content = content;
+        this.features = FeaturesRepositoryCodec.readFeatures(model, this);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null) {
+            return false;
+        }
+
+        if (!(obj instanceof StaxFeaturesRepository)) {
+            return false;
+        }
+
+        final StaxFeaturesRepository other = (StaxFeaturesRepository) obj;
+        if (features == null) {
+            if (other.features != null) {
+                return false;
+            }
+        } else if (!features.equals(other.features)) {
+            return false;
+        }
+
+        if (repositoryName == null) {
+            if (other.repositoryName != null) {
+                return false;
+            }
+        } else if (!repositoryName.equals(other.repositoryName)) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Features getFeatures() {
+        return features;
+    }
+
+    @Override
+    public String getName() {
+        return repositoryName;
+    }
+
+    @Override
+    public List<Repository> getRepositories() {
+        return features.getRepositories();
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (features == null ? 0 : features.hashCode());
+        result = prime * result + (repositoryName == null ? 0 : repositoryName.hashCode());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return repositoryName;
+    }
+
+    /**
+     * Writes the original bytes of the features document, exactly as they were
+     * read, to the specified {@link OutputStream}
+     */
+    @Override
+    public void write(final OutputStream out) throws IOException {
+        out.write(content);
+    }
+
+    /**
+     * Getter for the original bytes of the features document. The returned
+     * array is not copied and must not be modified.
+     *
+     * @return the original bytes of the features document
+     */
+    byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Parses the retained document content in to the features model
+     *
+     * @return the root {@link Features} of the document
+     * @throws XMLStreamException
+     *             if the document is not well formed
+     */
+    private Features parse() throws XMLStreamException {
+        final XMLStreamReader reader = createReader(new ByteArrayInputStream(content));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    return readFeatures(reader);
+                }
+            }
+
+            throw new XMLStreamException("Features repository " + repositoryName + " has no root element");
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the root {@code <features>} element. The reader must be positioned
+     * on its start tag and is left on its end tag.
+     */
+    private Features readFeatures(final XMLStreamReader reader) throws XMLStreamException {
+        final Features root = new Features(reader.getAttributeValue(null, "name"), this);
+
+        final List<Feature> featureList = new ArrayList<Feature>();
+        final List<Repository> repositoryList = new ArrayList<Repository>();
+
+        while (nextElement(reader)) {
+            final String localName = reader.getLocalName();
+            if (localName.equalsIgnoreCase("feature")) {
+                featureList.add(readFeature(reader, root));
+            } else if (localName.equalsIgnoreCase("repository")) {
+                repositoryList.add(new Repository(reader.getElementText().trim(), root));
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        root.setChildren(featureList, repositoryList);
+        return root;
+    }
+
+    /**
+     * Reads a top-level {@code <feature>} element and its {@code <bundle>} and
+     * {@code <feature>} children. The reader must be positioned on its start
+     * tag and is left on its end tag.
+     */
+    private Feature readFeature(final XMLStreamReader reader, final Features parent) throws XMLStreamException {
+        final Feature feature = new Feature(
+                reader.getAttributeValue(null, "name"),
+                reader.getAttributeValue(null, "version"),
+                reader.getAttributeValue(null, "start-level"),
+                parent);
+
+        final List<Feature> featureList = new ArrayList<Feature>();
+        final List<Bundle> bundleList = new ArrayList<Bundle>();
+
+        while (nextElement(reader)) {
+            final String localName = reader.getLocalName();
+            if (localName.equalsIgnoreCase("bundle")) {
+                final String startLevel = reader.getAttributeValue(null, "start-level");
+                bundleList.add(new Bundle(reader.getElementText().trim(), startLevel, feature));
+            } else if (localName.equalsIgnoreCase("feature")) {
+                final String name = reader.getAttributeValue(null, "name");
+                final String version = reader.getAttributeValue(null, "version");
+                final String startLevel = reader.getAttributeValue(null, "start-level");
+                final String text = reader.getElementText().trim();
+
+                featureList.add(new Feature(name != null ? name : text, version, startLevel, feature));
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        feature.setChildren(featureList, bundleList);
+        return feature;
+    }
+
+    /**
+     * Advances the reader to the next child start tag, skipping any text such
+     * as the contents of a {@code <details>} element.
+     *
+     * @return true if the reader is on a child start tag; false if it reached
+     *         the end tag of the current element
+     */
+    private static boolean nextElement(final XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Skips the element the reader is positioned on, including all of its
+     * children, leaving the reader on its end tag
+     */
+    private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * {@link XMLInputFactory} is not guaranteed to be thread safe so creation
+     * of readers from the shared instance is serialized.
+     */
+    private static XMLStreamReader createReader(final InputStream in) throws XMLStreamException {
+        synchronized (XML_INPUT_FACTORY) {
+            return XML_INPUT_FACTORY.createXMLStreamReader(in);
+        }
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        final byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+        }
+
+        return out.toByteArray();
+    }
+
+}
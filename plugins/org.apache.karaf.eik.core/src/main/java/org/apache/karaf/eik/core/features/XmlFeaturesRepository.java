@@ -21,7 +21,6 @@ package org.apache.karaf.eik.core.features;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Collections;
 import java.util.List;
 
 import org.jdom.Document;
@@ -108,7 +107,7 @@ public class XmlFeaturesRepository implements FeaturesRepository {
 
     @Override
     public List<Repository> getRepositories() {
-        return Collections.unmodifiableList(features.getRepositories());
+        return features.getRepositories();
     }
 
     @Override
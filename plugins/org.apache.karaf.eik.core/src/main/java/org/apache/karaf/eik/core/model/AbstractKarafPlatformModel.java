@@ -18,34 +18,55 @@
  */
 package org.apache.karaf.eik.core.model;
 
+import org.apache.karaf.eik.core.DirectoryScanner;
 import org.apache.karaf.eik.core.KarafPlatformModel;
+import org.apache.karaf.eik.core.PlatformBundleChangeEvent;
 import org.apache.karaf.eik.core.SystemBundleNames;
+import org.apache.karaf.eik.core.internal.KarafCorePluginActivator;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.core.runtime.IPath;
-import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.osgi.service.resolver.BundleDescription;
 import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.service.resolver.StateObjectFactory;
 import org.eclipse.pde.core.plugin.IPluginModelBase;
-import org.eclipse.pde.internal.core.PDEState;
 import org.osgi.framework.Bundle;
 
-@SuppressWarnings("restriction")
 abstract public class AbstractKarafPlatformModel implements KarafPlatformModel {
 
+    private static final String STATE_SNAPSHOT_TEMP_SUFFIX = ".tmp";
+
+    private static final int MAX_DEPLOYED_SEARCH_DEPTH = 50;
+
     /**
      * The detailed OSGi metadata regarding the state of this model
      */
-    private PDEState pdeState;
+    private State state;
 
     /**
      * The list of bundles that are contained withing this platform
      */
     private final List<URL> bundleList = new ArrayList<URL>();
 
+    /**
+     * Tracks the bundle JARs so that changes can be applied to the state
+     * incrementally
+     */
+    private PlatformBundleIndex bundleIndex;
+
+    /**
+     * The fingerprint of {@link #bundleList}
+     */
+    private String bundleFingerprint;
+
     private final Object monitor = new Object();
 
     public boolean containsPlugin(IPluginModelBase plugin) {
@@ -56,6 +77,20 @@ abstract public class AbstractKarafPlatformModel implements KarafPlatformModel {
         return desc != null;
     }
 
+    public BundleDescription getBundleByLocation(final String location) {
+        getState();
+
+        return bundleIndex.getBundleByLocation(location);
+    }
+
+    public String getPlatformBundlesFingerprint() {
+        synchronized (monitor) {
+            getState();
+
+            return bundleFingerprint;
+        }
+    }
+
     public IPath getConfigurationDirectory() {
         return getRootDirectory().append("etc");
     }
@@ -66,13 +101,15 @@ abstract public class AbstractKarafPlatformModel implements KarafPlatformModel {
 
     public State getState() {
         synchronized (monitor) {
-            if (pdeState == null) {
+            if (state == null) {
                 bundleList.addAll(getPlatformBundles());
-                pdeState = new PDEState(bundleList.toArray(new URL[0]), false, false, new NullProgressMonitor());
+                bundleFingerprint = computeFingerprint(bundleList);
+                state = loadState(bundleList, bundleFingerprint);
+                bundleIndex = new PlatformBundleIndex(state, urlsToFiles(bundleList), getUserDeployedBundles());
             }
         }
 
-        return pdeState.getState();
+        return state;
     }
 
     public boolean isFrameworkPlugin(IPluginModelBase model) {
@@ -81,6 +118,45 @@ abstract public class AbstractKarafPlatformModel implements KarafPlatformModel {
         return SystemBundleNames.EQUINOX.toString().equals(symbolicName) || SystemBundleNames.FELIX.toString().equals(symbolicName);
     }
 
+    /**
+     * Checks the bundle JARs of the plugin root and user deployed directories
+     * for additions, changes and removals since the state was created or last
+     * refreshed. Changed bundles of the plugin root directory are added to,
+     * updated in or removed from the {@link State} individually and the state
+     * snapshot is rewritten. Nothing is checked before the state is first
+     * requested.
+     *
+     * @return the {@link PlatformBundleChangeEvent} describing the changes or
+     *         null if nothing changed
+     */
+    public PlatformBundleChangeEvent refreshPlatformBundles() {
+        synchronized (monitor) {
+            if (bundleIndex == null) {
+                return null;
+            }
+
+            final List<URL> platformBundles = getPlatformBundles();
+
+            final PlatformBundleIndex.Delta delta = bundleIndex.update(urlsToFiles(platformBundles), getUserDeployedBundles());
+            if (delta.isEmpty()) {
+                return null;
+            }
+
+            if (delta.stateChanged) {
+                bundleList.clear();
+                bundleList.addAll(platformBundles);
+                bundleFingerprint = computeFingerprint(bundleList);
+
+                final File snapshotDirectory = getStateSnapshotDirectory();
+                if (snapshotDirectory != null) {
+                    writeStateSnapshot(snapshotDirectory, bundleFingerprint, state);
+                }
+            }
+
+            return new PlatformBundleChangeEvent(this, delta.addedBundles, delta.changedBundles, delta.removedBundles);
+        }
+    }
+
     /**
      * Returns the {@code List} of {@link Bundle} {@code URL}S that are found in
      * this Karaf platform implementation
@@ -89,4 +165,178 @@ abstract public class AbstractKarafPlatformModel implements KarafPlatformModel {
      */
     protected abstract List<URL> getPlatformBundles();
 
+    /**
+     * Returns the directory in which a snapshot of this model's OSGi
+     * {@link State} is kept between sessions. Subclasses that represent a
+     * stable installation should override this.
+     *
+     * @return the snapshot directory or null if the state should not be
+     *         persisted
+     */
+    protected File getStateSnapshotDirectory() {
+        return null;
+    }
+
+    /**
+     * Computes a fingerprint of the bundle JARs from their locations, sizes
+     * and modification times
+     *
+     * @param bundles
+     *            the bundle URLs
+     * @return the hex encoded fingerprint
+     */
+    private static String computeFingerprint(final List<URL> bundles) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (final URL url : bundles) {
+                final File file = new File(url.getFile());
+                digest.update(url.toString().getBytes("UTF-8"));
+                digest.update(Long.toString(file.length()).getBytes("UTF-8"));
+                digest.update(Long.toString(file.lastModified()).getBytes("UTF-8"));
+            }
+
+            return toHexString(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loads the {@link State} of the specified bundles from the snapshot if
+     * the fingerprint of the bundles is unchanged, otherwise builds it and
+     * writes a new snapshot
+     */
+    private State loadState(final List<URL> bundles, final String fingerprint) {
+        final File snapshotDirectory = getStateSnapshotDirectory();
+        if (snapshotDirectory == null) {
+            return createState(bundles);
+        }
+
+        final State snapshot = readStateSnapshot(snapshotDirectory, fingerprint);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        final State newState = createState(bundles);
+        writeStateSnapshot(snapshotDirectory, fingerprint, newState);
+
+        return newState;
+    }
+
+    private List<File> getUserDeployedBundles() {
+        return DirectoryScanner.scan(getUserDeployedDirectory().toFile(), "*.{jar,war}", MAX_DEPLOYED_SEARCH_DEPTH);
+    }
+
+    private static List<File> urlsToFiles(final List<URL> urls) {
+        final List<File> files = new ArrayList<File>(urls.size());
+        for (final URL url : urls) {
+            files.add(new File(url.getFile()));
+        }
+
+        return files;
+    }
+
+    private static State createState(final List<URL> bundles) {
+        return BundleManifestScanner.createState(bundles);
+    }
+
+    /**
+     * Reads the snapshot of the bundles with the specified fingerprint.
+     * Snapshots of other fingerprints are deleted first; this happens before
+     * this model has read any state from them, so none of their lazily loaded
+     * data is still needed.
+     */
+    private static State readStateSnapshot(final File snapshotDirectory, final String fingerprint) {
+        deleteStaleSnapshots(snapshotDirectory, fingerprint);
+
+        final File stateDirectory = new File(snapshotDirectory, fingerprint);
+        if (!stateDirectory.isDirectory()) {
+            return null;
+        }
+
+        try {
+            return StateObjectFactory.defaultFactory.readState(stateDirectory);
+        } catch (final IOException e) {
+            KarafCorePluginActivator.getLogger().warn("Unable to read platform state snapshot: " + stateDirectory.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary directory that is renamed after the
+     * fingerprint of the bundles once it is complete, so that an interrupted
+     * write never leaves a snapshot that appears to be valid
+     */
+    private static void writeStateSnapshot(final File snapshotDirectory, final String fingerprint, final State state) {
+        final File stateDirectory = new File(snapshotDirectory, fingerprint);
+        if (stateDirectory.isDirectory()) {
+            return;
+        }
+
+        final File tempDirectory = new File(snapshotDirectory, fingerprint + STATE_SNAPSHOT_TEMP_SUFFIX);
+        try {
+            deleteDirectory(tempDirectory);
+            if (!tempDirectory.mkdirs()) {
+                throw new IOException("Unable to create directory: " + tempDirectory.getAbsolutePath());
+            }
+
+            StateObjectFactory.defaultFactory.writeState(state, tempDirectory);
+
+            if (!tempDirectory.renameTo(stateDirectory)) {
+                throw new IOException("Unable to rename " + tempDirectory.getAbsolutePath() + " to " + stateDirectory.getName());
+            }
+        } catch (final IOException e) {
+            KarafCorePluginActivator.getLogger().warn("Unable to write platform state snapshot: " + stateDirectory.getAbsolutePath(), e);
+        } finally {
+            deleteDirectory(tempDirectory);
+        }
+    }
+
+    private static void deleteStaleSnapshots(final File snapshotDirectory, final String fingerprint) {
+        final File[] snapshots = snapshotDirectory.listFiles();
+        if (snapshots == null) {
+            return;
+        }
+
+        for (final File snapshot : snapshots) {
+            if (!snapshot.getName().equals(fingerprint)) {
+                deleteDirectory(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Deletes a snapshot directory and the files it contains, or a single
+     * file. Failures are ignored; the snapshot is deleted again later.
+     */
+    private static void deleteDirectory(final File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    /**
+     * Encodes bytes as a lower case hexadecimal string
+     *
+     * @param bytes
+     *            the bytes to encode
+     * @return the hexadecimal string
+     */
+    static String toHexString(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+
 }
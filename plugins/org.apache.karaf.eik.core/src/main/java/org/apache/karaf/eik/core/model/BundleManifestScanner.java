@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core.model;
+
+import org.apache.karaf.eik.core.internal.KarafCorePluginActivator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.service.resolver.StateObjectFactory;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+/**
+ * Builds an OSGi {@link State} from a list of bundle JARs. Reading each JAR's
+ * manifest and parsing it in to a {@link BundleDescription} is I/O bound, so
+ * it is done concurrently; the descriptions are then added to the state in
+ * the order of the JAR list. The location of each bundle is the absolute path
+ * of its JAR, and JARs that are not OSGi bundles are skipped.
+ */
+final class BundleManifestScanner {
+
+    private static final int MAX_THREADS = 16;
+
+    /**
+     * Creates an unresolved {@link State} containing the specified bundles
+     *
+     * @param bundles
+     *            the URLs of the bundle JARs
+     * @return the {@code State}
+     */
+    static State createState(final List<URL> bundles) {
+        final StateObjectFactory factory = StateObjectFactory.defaultFactory;
+        final State state = factory.createState(true);
+
+        if (bundles.isEmpty()) {
+            return state;
+        }
+
+        final int threads = Math.min(bundles.size(), Math.min(MAX_THREADS, 2 * Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Bundle Manifest Scanner " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            final List<Future<BundleDescription>> descriptions = new ArrayList<Future<BundleDescription>>(bundles.size());
+            for (int i = 0; i < bundles.size(); i++) {
+                final File file = new File(bundles.get(i).getFile());
+                final long bundleId = i + 1;
+
+                descriptions.add(executor.submit(new Callable<BundleDescription>() {
+                    @Override
+                    public BundleDescription call() throws Exception {
+                        return createBundleDescription(factory, state, file, bundleId);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < descriptions.size(); i++) {
+                try {
+                    final BundleDescription description = descriptions.get(i).get();
+                    if (description != null) {
+                        state.addBundle(description);
+                    }
+                } catch (final ExecutionException e) {
+                    KarafCorePluginActivator.getLogger().warn("Unable to read bundle manifest: " + bundles.get(i), e.getCause());
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return state;
+    }
+
+    /**
+     * Reads the manifest of a single JAR and creates its
+     * {@link BundleDescription} for the specified {@link State}
+     *
+     * @param state
+     *            the {@code State} the description is created for
+     * @param file
+     *            the bundle JAR
+     * @param bundleId
+     *            the bundle id to assign
+     * @return the {@code BundleDescription} or null if the JAR is not a bundle
+     * @throws IOException
+     *             if the JAR cannot be read
+     * @throws BundleException
+     *             if the manifest is not a valid bundle manifest
+     */
+    static BundleDescription createBundleDescription(final State state, final File file, final long bundleId) throws IOException, BundleException {
+        return createBundleDescription(StateObjectFactory.defaultFactory, state, file, bundleId);
+    }
+
+    /**
+     * Reads the manifest of a JAR and creates its {@link BundleDescription}
+     *
+     * @return the {@code BundleDescription} or null if the JAR is not a bundle
+     */
+    private static BundleDescription createBundleDescription(
+            final StateObjectFactory factory,
+            final State state,
+            final File file,
+            final long bundleId) throws IOException, BundleException
+    {
+        final Manifest manifest;
+
+        final JarFile jar = new JarFile(file);
+        try {
+            manifest = jar.getManifest();
+        } finally {
+            jar.close();
+        }
+
+        if (manifest == null || manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME) == null) {
+            return null;
+        }
+
+        final Hashtable<String, String> headers = new Hashtable<String, String>();
+        for (final Map.Entry<Object, Object> e : manifest.getMainAttributes().entrySet()) {
+            headers.put(((Attributes.Name) e.getKey()).toString(), (String) e.getValue());
+        }
+
+        return factory.createBundleDescription(state, headers, file.getAbsolutePath(), bundleId);
+    }
+
+    private BundleManifestScanner() {
+        throw new AssertionError("Cannot instantiate " + BundleManifestScanner.class.getName());
+    }
+
+}
@@ -22,86 +22,104 @@ import org.apache.karaf.eik.core.KarafPlatformDetails;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 import org.osgi.framework.Constants;
 
+/**
+ * The name, version and description of a Karaf platform, read from the
+ * manifest of its {@code lib/karaf.jar}. The manifest is read once when the
+ * details are created and the JAR is closed immediately; instances are
+ * immutable and shared through {@link #getPlatformDetails(File)}.
+ */
 public class GenericKarafPlatformDetails implements KarafPlatformDetails {
 
     private static final String UNKNOWN_VERSION = "Unknown version";
 
     private static final String UNKNOWN_PLATFORM = "Unknown platform";
 
-    private final JarFile platformDetailsBundle;
+    /**
+     * The shared details, keyed by the absolute path of the JAR
+     */
+    private static final ConcurrentMap<String, GenericKarafPlatformDetails> PLATFORM_DETAILS =
+        new ConcurrentHashMap<String, GenericKarafPlatformDetails>();
 
-    public GenericKarafPlatformDetails(final File file) throws IOException {
-        this.platformDetailsBundle = new JarFile(file);
+    private final String description;
+
+    /**
+     * The modification time of the JAR when its manifest was read
+     */
+    private final long lastModified;
+
+    private final String name;
+
+    private final String version;
+
+    /**
+     * Returns the shared details of the platform whose manifest is in the
+     * specified JAR. The manifest is only read again when the modification
+     * time of the JAR changes.
+     *
+     * @param file
+     *            the platform JAR, typically {@code lib/karaf.jar}
+     * @return the {@code GenericKarafPlatformDetails}
+     * @throws IOException
+     *             if the JAR cannot be read
+     */
+    public static GenericKarafPlatformDetails getPlatformDetails(final File file) throws IOException {
+        final String key = file.getAbsolutePath();
+
+        final GenericKarafPlatformDetails cached = PLATFORM_DETAILS.get(key);
+        if (cached != null && cached.lastModified == file.lastModified()) {
+            return cached;
+        }
+
+        final GenericKarafPlatformDetails details = new GenericKarafPlatformDetails(file);
+        PLATFORM_DETAILS.put(key, details);
+
+        return details;
     }
 
-    @Override
-    public String getDescription() {
-        final String description;
+    public GenericKarafPlatformDetails(final File file) throws IOException {
+        this.lastModified = file.lastModified();
+
+        final Manifest manifest;
+
+        final JarFile platformDetailsBundle = new JarFile(file);
         try {
-            final Manifest manifest = platformDetailsBundle.getManifest();
-            if (manifest == null) {
-                description = "";
-            } else {
-                final String bundleDescription = manifest.getMainAttributes().getValue(Constants.BUNDLE_DESCRIPTION);
-                if (bundleDescription == null) {
-                    description = "";
-                } else {
-                    description = bundleDescription;
-                }
-            }
-        } catch (final IOException e) {
-            return "";
+            manifest = platformDetailsBundle.getManifest();
+        } finally {
+            platformDetailsBundle.close();
         }
 
+        final Attributes attributes = manifest != null ? manifest.getMainAttributes() : new Attributes();
+        this.description = getValue(attributes, Constants.BUNDLE_DESCRIPTION, "");
+        this.name = getValue(attributes, Constants.BUNDLE_NAME, UNKNOWN_PLATFORM);
+        this.version = getValue(attributes, Constants.BUNDLE_VERSION, UNKNOWN_VERSION);
+    }
+
+    @Override
+    public String getDescription() {
         return description;
     }
 
     @Override
     public String getName() {
-        final String name;
-        try {
-            final Manifest manifest = platformDetailsBundle.getManifest();
-            if (manifest == null) {
-                name = UNKNOWN_PLATFORM;
-            } else {
-                final String bundleName = manifest.getMainAttributes().getValue(Constants.BUNDLE_NAME);
-                if (bundleName == null) {
-                    name = UNKNOWN_PLATFORM;
-                } else {
-                    name = bundleName;
-                }
-            }
-        } catch (final IOException e) {
-            return UNKNOWN_PLATFORM;
-        }
-
         return name;
     }
 
     @Override
     public String getVersion() {
-        final String version;
-        try {
-            final Manifest manifest = platformDetailsBundle.getManifest();
-            if (manifest == null) {
-                version = UNKNOWN_VERSION;
-            } else {
-                final String bundleVersion = manifest.getMainAttributes().getValue(Constants.BUNDLE_VERSION);
-                if (bundleVersion == null) {
-                    version = UNKNOWN_VERSION;
-                } else {
-                    version = bundleVersion;
-                }
-            }
-        } catch (final IOException e) {
-            return UNKNOWN_VERSION;
-        }
         return version;
     }
 
+    private static String getValue(final Attributes attributes, final String header, final String defaultValue) {
+        final String value = attributes.getValue(header);
+        return value != null ? value : defaultValue;
+    }
+
 }
@@ -18,9 +18,11 @@
  */
 package org.apache.karaf.eik.core.model;
 
+import org.apache.karaf.eik.core.DirectoryScanner;
 import org.apache.karaf.eik.core.IKarafConstants;
 import org.apache.karaf.eik.core.KarafCorePluginUtils;
 import org.apache.karaf.eik.core.KarafPlatformDetails;
+import org.apache.karaf.eik.core.configuration.ConfigurationSection;
 import org.apache.karaf.eik.core.configuration.FeaturesSection;
 import org.apache.karaf.eik.core.configuration.GeneralSection;
 import org.apache.karaf.eik.core.configuration.ManagementSection;
@@ -42,8 +44,12 @@ import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.core.runtime.IPath;
@@ -61,6 +67,12 @@ public class GenericKarafPlatformModel extends AbstractKarafPlatformModel implem
      */
     private final IPath rootPlatformPath;
 
+    /**
+     * The configuration sections of this model, one instance per section
+     * type. Each section reads its file only when it changed.
+     */
+    private final Map<Class<?>, ConfigurationSection> configurationSections = new HashMap<Class<?>, ConfigurationSection>();
+
     /**
      *
      * @param platformPath
@@ -72,18 +84,14 @@ public class GenericKarafPlatformModel extends AbstractKarafPlatformModel implem
     @Override
     public Object getAdapter(@SuppressWarnings("rawtypes") final Class adapterType) {
         final Object adaptedObject;
-        if (adapterType == FeaturesSection.class) {
-            adaptedObject = new FeaturesSectionImpl(this);
-        } else if (adapterType == ShellSection.class) {
-            adaptedObject = new ShellSectionImpl(this);
-        }else if (adapterType == GeneralSection.class) {
-            adaptedObject = new GeneralSectionImpl(this);
-        } else if (adapterType == ManagementSection.class) {
-            adaptedObject = adaptManagementSection();
-        } else if (adapterType == StartupSection.class) {
-            adaptedObject = new StartupSectionImpl(this);
-        } else if (adapterType == SystemSection.class) {
-            return new SystemSectionImpl(this);
+        if (adapterType == FeaturesSection.class
+                || adapterType == ShellSection.class
+                || adapterType == GeneralSection.class
+                || adapterType == ManagementSection.class
+                || adapterType == StartupSection.class
+                || adapterType == SystemSection.class)
+        {
+            adaptedObject = getConfigurationSection(adapterType);
         } else if (adapterType == KarafPlatformDetails.class) {
             adaptedObject = adaptKarafPlatformDetails();
         } else if (adapterType == KarafSshConnectionUrl.class) {
@@ -97,8 +105,7 @@ public class GenericKarafPlatformModel extends AbstractKarafPlatformModel implem
 
     @Override
     public List<String> getBootClasspath() {
-        final List<File> jarFiles = new ArrayList<File>();
-        KarafCorePluginUtils.getJarFileList(rootPlatformPath.append("lib").toFile(), jarFiles, 0);
+        final List<File> jarFiles = DirectoryScanner.scan(rootPlatformPath.append("lib").toFile(), "*.jar", 0);
 
         final List<String> bootClasspath = new ArrayList<String>();
         for(final File f : jarFiles) {
@@ -128,6 +135,43 @@ public class GenericKarafPlatformModel extends AbstractKarafPlatformModel implem
         return rootPlatformPath;
     }
 
+    /**
+     * Keeps the state snapshot of this installation in the core plugin's state
+     * area, in a directory named after the SHA-1 digest of the canonical root
+     * path. The model is shared by every project bound to the installation, so
+     * the snapshot is too.
+     */
+    @Override
+    protected File getStateSnapshotDirectory() {
+        final KarafCorePluginActivator plugin = KarafCorePluginActivator.getDefault();
+        if (plugin == null) {
+            return null;
+        }
+
+        String rootPath;
+        try {
+            rootPath = rootPlatformPath.toFile().getCanonicalPath();
+        } catch (final IOException e) {
+            rootPath = rootPlatformPath.toFile().getAbsolutePath();
+        }
+
+        final String rootPathDigest;
+        try {
+            rootPathDigest = toHexString(MessageDigest.getInstance("SHA-1").digest(rootPath.getBytes("UTF-8")));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try {
+            return plugin.getStateLocation().append("states").append(rootPathDigest).toFile();
+        } catch (final IllegalStateException e) {
+            // No instance location
+            return null;
+        }
+    }
+
     /**
      * Directory based Karaf platform model's typically exist outside of an
      * Eclipse platform on a file system and support customization of their
@@ -175,9 +219,7 @@ public class GenericKarafPlatformModel extends AbstractKarafPlatformModel implem
     @Override
     protected List<URL> getPlatformBundles() {
 
-        final List<File> jarFiles = new ArrayList<File>();
-        KarafCorePluginUtils.getJarFileList(getPluginRootDirectory().toFile(), jarFiles,
-                        MAX_SEARCH_DEPTH);
+        final List<File> jarFiles = DirectoryScanner.scan(getPluginRootDirectory().toFile(), "*.jar", MAX_SEARCH_DEPTH);
 
         return filesToUrls(jarFiles);
     }
@@ -194,7 +236,7 @@ public class GenericKarafPlatformModel extends AbstractKarafPlatformModel implem
         try {
             if (KarafCorePluginUtils.isKaraf(this)) {
                 final File file = getRootDirectory().append("lib").append("karaf.jar").toFile();
-                adaptedObject = new GenericKarafPlatformDetails(file);
+                adaptedObject = GenericKarafPlatformDetails.getPlatformDetails(file);
             } else {
                 adaptedObject = null;
             }
@@ -204,8 +246,8 @@ public class GenericKarafPlatformModel extends AbstractKarafPlatformModel implem
         return adaptedObject;
     }
 
-    private Object adaptManagementSection() {
-        final Object adaptedObject;
+    private ConfigurationSection adaptManagementSection() {
+        final ConfigurationSection adaptedObject;
         if (KarafCorePluginUtils.isKaraf(this)) {
             adaptedObject = new ManagementSectionImpl(this, IKarafConstants.ORG_APACHE_KARAF_MANAGEMENT_CFG_FILENAME);
         } else {
@@ -215,4 +257,40 @@ public class GenericKarafPlatformModel extends AbstractKarafPlatformModel implem
         return adaptedObject;
     }
 
+    /**
+     * Returns this model's instance of a configuration section, creating it
+     * on first use
+     *
+     * @param sectionType
+     *            the configuration section interface
+     * @return the {@link ConfigurationSection} or null if this platform does
+     *         not support the section
+     */
+    private ConfigurationSection getConfigurationSection(final Class<?> sectionType) {
+        synchronized (configurationSections) {
+            ConfigurationSection section = configurationSections.get(sectionType);
+            if (section == null) {
+                if (sectionType == FeaturesSection.class) {
+                    section = new FeaturesSectionImpl(this);
+                } else if (sectionType == ShellSection.class) {
+                    section = new ShellSectionImpl(this);
+                } else if (sectionType == GeneralSection.class) {
+                    section = new GeneralSectionImpl(this);
+                } else if (sectionType == ManagementSection.class) {
+                    section = adaptManagementSection();
+                } else if (sectionType == StartupSection.class) {
+                    section = new StartupSectionImpl(this);
+                } else if (sectionType == SystemSection.class) {
+                    section = new SystemSectionImpl(this);
+                }
+
+                if (section != null) {
+                    configurationSections.put(sectionType, section);
+                }
+            }
+
+            return section;
+        }
+    }
+
 }
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.core.model;
+
+import org.apache.karaf.eik.core.internal.KarafCorePluginActivator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.runtime.Path;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.State;
+import org.osgi.framework.BundleException;
+
+/**
+ * Remembers the size and modification time of the bundle JARs of a platform
+ * so that changes can be detected by comparing a new listing of the JARs
+ * against the previous one. Changes to the bundles that make up the platform
+ * {@link State} are applied to the {@code State} one
+ * {@link BundleDescription} at a time instead of rebuilding it; other bundles,
+ * such as those in the user deployed directory, are only tracked.
+ * <p>
+ * The index also maps the normalized location of every bundle in the
+ * {@code State} to its {@link BundleDescription}, because
+ * {@link State#getBundleByLocation(String)} searches all bundles.
+ */
+final class PlatformBundleIndex {
+
+    /**
+     * The bundles that were added, changed or removed by an update
+     */
+    static final class Delta {
+
+        final List<File> addedBundles = new ArrayList<File>();
+
+        final List<File> changedBundles = new ArrayList<File>();
+
+        final List<File> removedBundles = new ArrayList<File>();
+
+        boolean stateChanged;
+
+        boolean isEmpty() {
+            return addedBundles.isEmpty() && changedBundles.isEmpty() && removedBundles.isEmpty();
+        }
+    }
+
+    /**
+     * The size and modification time of a bundle JAR
+     */
+    private static final class Stamp {
+
+        private final long lastModified;
+
+        private final long length;
+
+        private Stamp(final File file) {
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        private boolean isCurrent(final File file) {
+            return lastModified == file.lastModified() && length == file.length();
+        }
+    }
+
+    private final State state;
+
+    private final Map<String, BundleDescription> locations = new ConcurrentHashMap<String, BundleDescription>();
+
+    private Map<File, Stamp> stateBundles;
+
+    private Map<File, Stamp> trackedBundles;
+
+    /**
+     * Creates an index for a {@link State} that was built from the specified
+     * bundles
+     *
+     * @param state
+     *            the platform {@code State}
+     * @param stateBundles
+     *            the bundle JARs the {@code State} was built from
+     * @param trackedBundles
+     *            bundle JARs that are not part of the {@code State} but whose
+     *            changes are reported
+     */
+    PlatformBundleIndex(final State state, final List<File> stateBundles, final List<File> trackedBundles) {
+        this.state = state;
+        this.stateBundles = stamp(stateBundles);
+        this.trackedBundles = stamp(trackedBundles);
+
+        for (final BundleDescription description : state.getBundles()) {
+            if (description.getLocation() != null) {
+                locations.put(normalizeLocation(description.getLocation()), description);
+            }
+        }
+    }
+
+    /**
+     * Finds the {@link BundleDescription} in the {@link State} with the
+     * specified location. Locations are compared after removing redundant
+     * {@code .} and {@code ..} segments and separators.
+     *
+     * @param location
+     *            the bundle location, the absolute path of its JAR
+     * @return the {@code BundleDescription} or null if there is none
+     */
+    BundleDescription getBundleByLocation(final String location) {
+        if (location == null) {
+            return null;
+        }
+
+        return locations.get(normalizeLocation(location));
+    }
+
+    /**
+     * Compares the current bundle JARs against the previous ones and applies
+     * the changes to the {@link State}
+     *
+     * @param currentStateBundles
+     *            the bundle JARs that now make up the {@code State}
+     * @param currentTrackedBundles
+     *            the tracked bundle JARs that now exist
+     * @return the {@link Delta}, which is empty if nothing changed
+     */
+    Delta update(final List<File> currentStateBundles, final List<File> currentTrackedBundles) {
+        final Delta delta = new Delta();
+
+        final Map<File, Stamp> newStateBundles = compare(stateBundles, currentStateBundles, delta);
+        if (!delta.isEmpty()) {
+            delta.stateChanged = true;
+            applyToState(delta);
+        }
+
+        stateBundles = newStateBundles;
+        trackedBundles = compare(trackedBundles, currentTrackedBundles, delta);
+
+        return delta;
+    }
+
+    private void applyToState(final Delta delta) {
+        for (final File file : delta.removedBundles) {
+            final BundleDescription existing = locations.remove(normalizeLocation(file.getAbsolutePath()));
+            if (existing != null) {
+                state.removeBundle(existing);
+            }
+        }
+
+        for (final File file : delta.changedBundles) {
+            final String location = normalizeLocation(file.getAbsolutePath());
+            final BundleDescription existing = locations.get(location);
+            final long bundleId = existing != null ? existing.getBundleId() : state.getHighestBundleId() + 1;
+
+            final BundleDescription description = createBundleDescription(file, bundleId);
+            if (existing == null) {
+                if (description != null) {
+                    state.addBundle(description);
+                    locations.put(location, description);
+                }
+            } else if (description == null) {
+                state.removeBundle(existing);
+                locations.remove(location);
+            } else {
+                state.updateBundle(description);
+                locations.put(location, description);
+            }
+        }
+
+        for (final File file : delta.addedBundles) {
+            final BundleDescription description = createBundleDescription(file, state.getHighestBundleId() + 1);
+            if (description != null) {
+                state.addBundle(description);
+                locations.put(normalizeLocation(file.getAbsolutePath()), description);
+            }
+        }
+    }
+
+    /**
+     * Compares the previous stamps against the current files, adding the
+     * differences to the delta
+     *
+     * @return the stamps of the current files
+     */
+    private static Map<File, Stamp> compare(final Map<File, Stamp> previous, final List<File> current, final Delta delta) {
+        final Map<File, Stamp> stamps = new HashMap<File, Stamp>(current.size() * 2);
+        for (final File file : current) {
+            final Stamp stamp = previous.get(file);
+            if (stamp == null) {
+                delta.addedBundles.add(file);
+                stamps.put(file, new Stamp(file));
+            } else if (!stamp.isCurrent(file)) {
+                delta.changedBundles.add(file);
+                stamps.put(file, new Stamp(file));
+            } else {
+                stamps.put(file, stamp);
+            }
+        }
+
+        for (final File file : previous.keySet()) {
+            if (!stamps.containsKey(file)) {
+                delta.removedBundles.add(file);
+            }
+        }
+
+        return stamps;
+    }
+
+    private BundleDescription createBundleDescription(final File file, final long bundleId) {
+        try {
+            return BundleManifestScanner.createBundleDescription(state, file, bundleId);
+        } catch (final IOException e) {
+            KarafCorePluginActivator.getLogger().warn("Unable to read bundle manifest: " + file.getAbsolutePath(), e);
+        } catch (final BundleException e) {
+            KarafCorePluginActivator.getLogger().warn("Unable to read bundle manifest: " + file.getAbsolutePath(), e);
+        }
+
+        return null;
+    }
+
+    private static String normalizeLocation(final String location) {
+        return new Path(location).toOSString();
+    }
+
+    private static Map<File, Stamp> stamp(final List<File> files) {
+        final Map<File, Stamp> stamps = new HashMap<File, Stamp>(files.size() * 2);
+        for (final File file : files) {
+            stamps.put(file, new Stamp(file));
+        }
+
+        return stamps;
+    }
+
+}
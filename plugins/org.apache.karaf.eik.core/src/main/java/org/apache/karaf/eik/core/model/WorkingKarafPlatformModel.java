@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.osgi.service.resolver.BundleDescription;
 import org.eclipse.osgi.service.resolver.State;
 import org.eclipse.pde.core.plugin.IPluginModelBase;
 
@@ -64,6 +65,16 @@ public class WorkingKarafPlatformModel extends AbstractKarafPlatformModel implem
         return adaptedObject;
     }
 
+    @Override
+    public BundleDescription getBundleByLocation(final String location) {
+        return parentKarafModel.getBundleByLocation(location);
+    }
+
+    @Override
+    public String getPlatformBundlesFingerprint() {
+        return parentKarafModel.getPlatformBundlesFingerprint();
+    }
+
     @Override
     public List<String> getBootClasspath() {
         return parentKarafModel.getBootClasspath();
@@ -26,7 +26,7 @@ import org.apache.karaf.eik.core.features.Feature;
 import org.apache.karaf.eik.core.features.FeatureResolverImpl;
 import org.apache.karaf.eik.core.features.Features;
 import org.apache.karaf.eik.core.features.FeaturesRepository;
-import org.apache.karaf.eik.core.features.XmlFeaturesRepository;
+import org.apache.karaf.eik.core.features.StaxFeaturesRepository;
 
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -335,8 +335,8 @@ public class KarafConfigurationTab extends AbstractLaunchConfigurationTab {
                 for (final IResource resource : resources) {
                     if (resource.getFileExtension().equalsIgnoreCase("xml")) {
                         fin = new FileInputStream(resource.getRawLocation().toFile());
-                        final XmlFeaturesRepository xmlFeatureRepository = new XmlFeaturesRepository(resource.getName(), fin);
-                        featuresRepositories.add(xmlFeatureRepository);
+                        final FeaturesRepository featuresRepository = new StaxFeaturesRepository(resource.getName(), fin);
+                        featuresRepositories.add(featuresRepository);
                         fin.close();
                     }
                 }
@@ -19,6 +19,7 @@
 package org.apache.karaf.eik.ui;
 
 import org.apache.karaf.eik.core.LogWrapper;
+import org.apache.karaf.eik.ui.project.KarafProjectPlatformBundleListener;
 
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.resource.ImageRegistry;
@@ -49,6 +50,8 @@ public class KarafUIPluginActivator extends AbstractUIPlugin {
 
     private BundleContext bundleContext;
 
+    private KarafProjectPlatformBundleListener platformBundleChangeListener;
+
     /**
      * Returns the shared instance
      *
@@ -75,6 +78,17 @@ public class KarafUIPluginActivator extends AbstractUIPlugin {
         super();
     }
 
+    /**
+     * Getter for the listener that receives the platform bundle changes of
+     * the open Karaf projects
+     *
+     * @return the {@link KarafProjectPlatformBundleListener} or null if this
+     *         plugin is not started
+     */
+    public KarafProjectPlatformBundleListener getPlatformBundleListener() {
+        return platformBundleChangeListener;
+    }
+
     /**
      * Returns a service with the specified name or {@code null} if none.
      *
@@ -101,10 +115,16 @@ public class KarafUIPluginActivator extends AbstractUIPlugin {
         super.start(context);
         plugin = this;
         bundleContext = context;
+
+        platformBundleChangeListener = new KarafProjectPlatformBundleListener();
+        platformBundleChangeListener.install();
     }
 
     @Override
     public void stop(final BundleContext context) throws Exception {
+        platformBundleChangeListener.uninstall();
+        platformBundleChangeListener = null;
+
         plugin = null;
         bundleContext = null;
 
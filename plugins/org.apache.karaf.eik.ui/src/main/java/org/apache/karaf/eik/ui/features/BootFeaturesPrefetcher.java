@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.ui.features;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.karaf.eik.core.MvnCoordinate;
+import org.apache.karaf.eik.core.features.Bundle;
+import org.apache.karaf.eik.core.features.FeatureClosureResolver;
+import org.apache.karaf.eik.ui.KarafUIPluginActivator;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Downloads the bundles required by the boot features of a Karaf project in to
+ * the local Maven repository, so that a launched Karaf instance finds them on
+ * disk instead of resolving them one at a time during startup. Bundles that
+ * are already in the Karaf {@code system/} directory or the local repository
+ * are skipped and the rest are downloaded concurrently.
+ */
+public class BootFeaturesPrefetcher {
+
+    private static final int MAX_CONCURRENT_DOWNLOADS = 8;
+
+    private static final long POLL_INTERVAL_MILLIS = 250;
+
+    /**
+     * The time the downloads of a prefetch may take in total; downloads that
+     * have not finished by then are abandoned
+     */
+    private static final long PREFETCH_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+
+    private final MvnArtifactResolver artifactResolver;
+
+    /**
+     * Constructs a prefetcher
+     *
+     * @param artifactResolver
+     *            the {@link MvnArtifactResolver} used to locate and download
+     *            the bundles
+     */
+    public BootFeaturesPrefetcher(final MvnArtifactResolver artifactResolver) {
+        this.artifactResolver = artifactResolver;
+    }
+
+    /**
+     * Downloads the missing bundles of the specified boot features
+     *
+     * @param bootFeatureNames
+     *            the boot feature names, optionally carrying a
+     *            {@code /version}
+     * @param closureResolver
+     *            the {@link FeatureClosureResolver} of the project's features
+     *            repositories
+     * @param monitor
+     *            the {@link IProgressMonitor} used to report progress; one
+     *            unit of work is reported for each finished download
+     * @return {@link Status#OK_STATUS} if every bundle is available locally,
+     *         {@link Status#CANCEL_STATUS} if the monitor was canceled,
+     *         otherwise a {@link MultiStatus} describing the bundles that
+     *         could not be downloaded
+     */
+    public IStatus prefetch(final List<String> bootFeatureNames, final FeatureClosureResolver closureResolver, final IProgressMonitor monitor) {
+        final List<Bundle> bundles;
+        try {
+            bundles = closureResolver.getBundles(bootFeatureNames);
+        } catch (final IllegalStateException e) {
+            return new Status(IStatus.WARNING, KarafUIPluginActivator.PLUGIN_ID, "Unable to determine the bundles of the boot features", e);
+        }
+
+        final List<String> missing = new ArrayList<String>();
+        for (final Bundle bundle : bundles) {
+            final String bundleUrl = bundle.getBundleUrl();
+            if (MvnCoordinate.parse(bundleUrl) != null && artifactResolver.findLocalFile(bundleUrl) == null) {
+                missing.add(bundleUrl);
+            }
+        }
+
+        monitor.beginTask("Prefetching boot feature bundles", missing.size());
+        try {
+            return missing.isEmpty() ? Status.OK_STATUS : download(missing, monitor);
+        } finally {
+            monitor.done();
+        }
+    }
+
+    /**
+     * Downloads bundles concurrently, waiting for them in order until they
+     * finish or {@link #PREFETCH_TIMEOUT_MILLIS} has passed
+     */
+    private IStatus download(final List<String> missing, final IProgressMonitor monitor) {
+        final MultiStatus failures = new MultiStatus(KarafUIPluginActivator.PLUGIN_ID, IStatus.OK, "Unable to prefetch boot feature bundles", null);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(missing.size(), MAX_CONCURRENT_DOWNLOADS), new ThreadFactory() {
+
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Boot Feature Bundle Prefetcher " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            final List<Future<Boolean>> downloads = new ArrayList<Future<Boolean>>(missing.size());
+            for (final String bundleUrl : missing) {
+                downloads.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return Boolean.valueOf(artifactResolver.install(bundleUrl));
+                    }
+                }));
+            }
+
+            final long deadline = System.currentTimeMillis() + PREFETCH_TIMEOUT_MILLIS;
+            for (int i = 0; i < downloads.size(); i++) {
+                monitor.subTask("Prefetching boot feature bundle " + (i + 1) + " of " + downloads.size() + ": " + missing.get(i));
+
+                while (true) {
+                    if (monitor.isCanceled()) {
+                        return Status.CANCEL_STATUS;
+                    }
+
+                    try {
+                        final long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                        downloads.get(i).get(Math.min(POLL_INTERVAL_MILLIS, remaining), TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (final TimeoutException e) {
+                        if (System.currentTimeMillis() >= deadline) {
+                            downloads.get(i).cancel(true);
+                            failures.add(new Status(IStatus.WARNING, KarafUIPluginActivator.PLUGIN_ID, "Timed out prefetching bundle: " + missing.get(i)));
+                            break;
+                        }
+                    } catch (final ExecutionException e) {
+                        failures.add(new Status(IStatus.WARNING, KarafUIPluginActivator.PLUGIN_ID, "Unable to prefetch bundle: " + missing.get(i), e.getCause()));
+                        break;
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return Status.CANCEL_STATUS;
+                    }
+                }
+
+                monitor.worked(1);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return failures.isOK() ? Status.OK_STATUS : failures;
+    }
+
+}
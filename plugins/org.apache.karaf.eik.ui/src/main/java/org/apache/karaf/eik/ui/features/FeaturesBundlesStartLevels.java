@@ -19,62 +19,210 @@
 package org.apache.karaf.eik.ui.features;
 
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 import org.apache.karaf.eik.core.IKarafConstants;
+import org.apache.karaf.eik.core.KarafCorePluginUtils;
 import org.apache.karaf.eik.core.KarafPlatformModel;
-import org.apache.karaf.eik.core.configuration.FeaturesSection;
+import org.apache.karaf.eik.core.MvnArtifactLocator;
+import org.apache.karaf.eik.core.PropertiesFileCache;
 import org.apache.karaf.eik.core.features.Bundle;
 import org.apache.karaf.eik.core.features.Feature;
 import org.apache.karaf.eik.core.features.FeaturesRepository;
+import org.apache.karaf.eik.core.features.StaxFeaturesRepository;
 import org.apache.karaf.eik.ui.IKarafProject;
-import org.eclipse.core.runtime.NullProgressMonitor;
+import org.apache.karaf.eik.ui.KarafUIPluginActivator;
+import org.apache.karaf.eik.ui.project.KarafProjectBuilder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.osgi.service.resolver.BundleDescription;
 
+/**
+ * An index of the start levels that the Features repositories of an
+ * {@link IKarafProject} assign to bundles, keyed by bundle symbolic name.
+ * <p>
+ * The index is maintained by the project builder from the Features repository
+ * files in the project's {@code features} folder and is persisted in the
+ * project's {@code .bin/cache} folder. The start levels each repository file
+ * assigns to bundle URLs are kept per file and only read again when the file
+ * changes; the symbolic names of the bundle URLs are kept per platform and
+ * only looked up again when the platform bundles change. {@link #load()} never
+ * resolves anything itself: it reads the persisted index and schedules a build
+ * of the project if the index is missing or out of date.
+ */
 public class FeaturesBundlesStartLevels {
 
+	private static final String CACHE_FOLDER = "cache";
+	private static final String FEATURES_FOLDER = "features";
+	private static final String START_LEVELS_FILE = "bundle-start-levels.properties";
+	private static final String SYMBOLIC_NAMES_FILE = "bundle-symbolic-names.properties";
+	private static final String REPOSITORY_START_LEVELS_FILE = "repository-start-levels.properties";
+	private static final String PLATFORM_FINGERPRINT_KEY = "${platformBundlesFingerprint}";
+	private static final String REPOSITORIES_KEY = "${repositories}";
+	private static final String REPOSITORY_SEPARATOR = ",";
+	private static final String BUNDLE_URL_SEPARATOR = "|";
+
 	private final IKarafProject karafProject;
 	private final Map<String, String> symbolicNameToStartLevel;
-	private final MvnUrlConverter converter;
-	
+
 	private KarafPlatformModel karafPlatformModel;
-	private String baseBundlesDir;
+	private MvnArtifactLocator artifactLocator;
 
 	public FeaturesBundlesStartLevels(IKarafProject karafProject) {
 		this.karafProject = karafProject;
 		this.symbolicNameToStartLevel = new HashMap<String, String>();
-		this.converter = new MvnUrlConverter();
 	}
-	
+
+	/**
+	 * Loads the persisted start level index. If there is none the project is
+	 * scheduled for a full build and the index stays empty; if it was built
+	 * from different platform bundles it is used as it is and the project is
+	 * scheduled to update it.
+	 */
 	public void load(){
 		karafPlatformModel = (KarafPlatformModel) karafProject.getAdapter(KarafPlatformModel.class);
-		baseBundlesDir = getBaseBundleDir();
-		
-        final FeaturesSection featuresSection = (FeaturesSection) karafPlatformModel.getAdapter(FeaturesSection.class);
-        final FeaturesResolverJob job = new FeaturesResolverJob(karafProject.getName(), karafPlatformModel, featuresSection);
-        job.run(new NullProgressMonitor());
-        List<FeaturesRepository> featuresRepositories = job.getFeaturesRepositories();
-        for (FeaturesRepository featuresRepository : featuresRepositories) {
-			List<Feature> features = featuresRepository.getFeatures().getFeatures();
-			for (Feature feature : features) {
-				String featureStartLevel = feature.getStartLevel();
-				List<Bundle> bundles = feature.getBundles();
-				for (Bundle bundle : bundles) {
-					String bundleStartLevel = bundle.getStartLevel();
-					
-					String startLevel = (bundleStartLevel != null) ? bundleStartLevel : featureStartLevel; 
-					if (startLevel != null) {
-						String symbolicName = getSymbolicName(bundle.getBundleUrl());
-						if (symbolicName != null) {
-							symbolicNameToStartLevel.put(symbolicName, startLevel);
-						}
-					}
+
+		symbolicNameToStartLevel.clear();
+
+		final Map<String, String> startLevels = loadIndex(START_LEVELS_FILE);
+		if (startLevels == null) {
+			scheduleBuild(false);
+			return;
+		}
+
+		final boolean current = isCurrent(startLevels);
+		startLevels.remove(PLATFORM_FINGERPRINT_KEY);
+		symbolicNameToStartLevel.putAll(startLevels);
+
+		if (!current) {
+			scheduleBuild(true);
+		}
+	}
+
+	/**
+	 * Updates the start level index from the Features repository files of the
+	 * last update, for example after the platform bundles changed. If there
+	 * was no previous update every Features repository file in the project's
+	 * {@code features} folder is used.
+	 */
+	public void update() {
+		final File featuresDirectory = karafProject.getFolder(FEATURES_FOLDER).getRawLocation().toFile();
+		final List<File> featuresRepositoryFiles = new ArrayList<File>();
+
+		final Map<String, String> repositoryStartLevels = loadIndex(REPOSITORY_START_LEVELS_FILE);
+		final String repositories = repositoryStartLevels != null ? repositoryStartLevels.get(REPOSITORIES_KEY) : null;
+		if (repositories != null) {
+			for (String repository : repositories.split(REPOSITORY_SEPARATOR)) {
+				if (repository.length() > 0) {
+					featuresRepositoryFiles.add(new File(featuresDirectory, repository));
+				}
+			}
+		} else {
+			final File[] files = featuresDirectory.listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File file) {
+					return file.isFile() && file.getName().endsWith(".xml");
+				}
+			});
+
+			if (files != null) {
+				Arrays.sort(files);
+				featuresRepositoryFiles.addAll(Arrays.asList(files));
+			}
+		}
+
+		update(featuresRepositoryFiles);
+	}
+
+	/**
+	 * Updates the start level index from the specified Features repository
+	 * files and persists it. Files that did not change since the previous
+	 * update are not read again, and bundle URLs whose symbolic name was
+	 * determined by a previous update with the same platform bundles are not
+	 * looked up again.
+	 *
+	 * @param featuresRepositoryFiles
+	 *            the Features repository files of the project; where they
+	 *            assign different start levels to a bundle the last one wins
+	 */
+	public void update(List<File> featuresRepositoryFiles) {
+		karafPlatformModel = (KarafPlatformModel) karafProject.getAdapter(KarafPlatformModel.class);
+		artifactLocator = new MvnArtifactLocator(new File(getBaseBundleDir()), null);
+
+		Map<String, String> previousRepositoryStartLevels = loadIndex(REPOSITORY_START_LEVELS_FILE);
+		if (previousRepositoryStartLevels == null) {
+			previousRepositoryStartLevels = new HashMap<String, String>();
+		}
+
+		Map<String, String> previousSymbolicNames = loadIndex(SYMBOLIC_NAMES_FILE);
+		if (previousSymbolicNames == null || !isCurrent(previousSymbolicNames)) {
+			previousSymbolicNames = new HashMap<String, String>();
+		}
+
+		final String fingerprint = karafPlatformModel.getPlatformBundlesFingerprint();
+
+		final Properties repositoryStartLevels = new Properties();
+
+		final Properties symbolicNames = new Properties();
+		symbolicNames.put(PLATFORM_FINGERPRINT_KEY, fingerprint);
+
+		final Properties startLevels = new Properties();
+		startLevels.put(PLATFORM_FINGERPRINT_KEY, fingerprint);
+
+		symbolicNameToStartLevel.clear();
+
+		final List<String> repositories = new ArrayList<String>();
+		for (File featuresRepositoryFile : featuresRepositoryFiles) {
+			Map<String, String> bundleStartLevels = getBundleStartLevels(featuresRepositoryFile, previousRepositoryStartLevels, repositoryStartLevels);
+			if (bundleStartLevels == null) {
+				continue;
+			}
+
+			repositories.add(featuresRepositoryFile.getName());
+
+			for (Map.Entry<String, String> entry : bundleStartLevels.entrySet()) {
+				String bundleUrl = entry.getKey();
+
+				String symbolicName = previousSymbolicNames.get(bundleUrl);
+				if (symbolicName == null) {
+					symbolicName = getSymbolicName(bundleUrl);
+				}
+
+				if (symbolicName != null) {
+					symbolicNames.put(bundleUrl, symbolicName);
+					startLevels.put(symbolicName, entry.getValue());
+					symbolicNameToStartLevel.put(symbolicName, entry.getValue());
 				}
 			}
 		}
+
+		repositoryStartLevels.put(REPOSITORIES_KEY, KarafCorePluginUtils.join(repositories, REPOSITORY_SEPARATOR));
+
+		final File cacheDirectory = getCacheDirectory();
+		if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+			KarafUIPluginActivator.getLogger().warn("Unable to create cache directory: " + cacheDirectory.getAbsolutePath());
+			return;
+		}
+
+		KarafCorePluginUtils.save(new File(cacheDirectory, REPOSITORY_START_LEVELS_FILE), repositoryStartLevels);
+		KarafCorePluginUtils.save(new File(cacheDirectory, SYMBOLIC_NAMES_FILE), symbolicNames);
+		KarafCorePluginUtils.save(new File(cacheDirectory, START_LEVELS_FILE), startLevels);
 	}
 
     private String getBaseBundleDir() {
@@ -83,18 +231,174 @@ public class FeaturesBundlesStartLevels {
 		String defaultRepository = (String) runtimeProperties.get("karaf.default.repository");
 		return karafHome + "/" + defaultRepository;
    }
-	
+
 	public boolean containsPlugin(String bundleSymbolicName) {
 		return symbolicNameToStartLevel.containsKey(bundleSymbolicName);
 	}
-	
+
 	public String getStartLevel(String bundleSymbolicName) {
 		return symbolicNameToStartLevel.get(bundleSymbolicName);
 	}
-	
+
+	/**
+	 * Determines the start levels a Features repository file assigns to
+	 * bundle URLs, reusing those of the previous update if the file has the
+	 * same modification time and length, and records them together with that
+	 * stamp. The stamp is not recorded if the file may have been modified
+	 * without its modification time changing.
+	 *
+	 * @param file
+	 *            the Features repository file
+	 * @param previousRepositoryStartLevels
+	 *            the repository start levels of the previous update
+	 * @param repositoryStartLevels
+	 *            the repository start levels of this update
+	 * @return the start levels keyed by bundle URL or null if the file could
+	 *         not be read
+	 */
+	private Map<String, String> getBundleStartLevels(File file, Map<String, String> previousRepositoryStartLevels, Properties repositoryStartLevels) {
+		final String repository = file.getName();
+		final String prefix = repository + BUNDLE_URL_SEPARATOR;
+
+		final long readTime = System.currentTimeMillis();
+		final long lastModified = file.lastModified();
+		final String stamp = lastModified + "/" + file.length();
+
+		final Map<String, String> bundleStartLevels = new LinkedHashMap<String, String>();
+
+		if (stamp.equals(previousRepositoryStartLevels.get(repository))) {
+			for (Map.Entry<String, String> entry : previousRepositoryStartLevels.entrySet()) {
+				if (entry.getKey().startsWith(prefix)) {
+					bundleStartLevels.put(entry.getKey().substring(prefix.length()), entry.getValue());
+				}
+			}
+		} else {
+			if (!file.isFile()) {
+				return null;
+			}
+
+			final FeaturesRepository featuresRepository;
+			InputStream in = null;
+			try {
+				in = new FileInputStream(file);
+				featuresRepository = new StaxFeaturesRepository(repository, in);
+			} catch (final IOException e) {
+				KarafUIPluginActivator.getLogger().warn("Unable to read Features repository " + file.getAbsolutePath(), e);
+				return null;
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (final IOException e) {
+						// This space left blank
+					}
+				}
+			}
+
+			List<Feature> features = featuresRepository.getFeatures().getFeatures();
+			for (Feature feature : features) {
+				String featureStartLevel = feature.getStartLevel();
+				List<Bundle> bundles = feature.getBundles();
+				for (Bundle bundle : bundles) {
+					String bundleStartLevel = bundle.getStartLevel();
+
+					String startLevel = (bundleStartLevel != null) ? bundleStartLevel : featureStartLevel;
+					if (startLevel != null) {
+						bundleStartLevels.put(bundle.getBundleUrl(), startLevel);
+					}
+				}
+			}
+		}
+
+		if (!PropertiesFileCache.isRacilyModified(lastModified, readTime)) {
+			repositoryStartLevels.put(repository, stamp);
+		}
+
+		for (Map.Entry<String, String> entry : bundleStartLevels.entrySet()) {
+			repositoryStartLevels.put(prefix + entry.getKey(), entry.getValue());
+		}
+
+		return bundleStartLevels;
+	}
+
+	private File getCacheDirectory() {
+		return karafProject.getFolder(CACHE_FOLDER).getRawLocation().toFile();
+	}
+
+	/**
+	 * Reads a persisted index of the cache folder
+	 *
+	 * @param filename
+	 *            the name of the index file
+	 * @return the index or null if there is none or it could not be read
+	 */
+	private Map<String, String> loadIndex(String filename) {
+		final File cacheDirectory = getCacheDirectory();
+		if (!new File(cacheDirectory, filename).isFile()) {
+			return null;
+		}
+
+		final Map<String, String> index = new HashMap<String, String>();
+		try {
+			index.putAll(PropertiesFileCache.getProperties(cacheDirectory, filename, false));
+		} catch (final CoreException e) {
+			KarafUIPluginActivator.getLogger().warn("Unable to load " + filename + " for project " + karafProject.getName(), e);
+			return null;
+		}
+
+		return index;
+	}
+
+	/**
+	 * Determines if a persisted index was built from the current platform
+	 * bundles
+	 *
+	 * @param index
+	 *            the index
+	 * @return true if the index carries the current platform bundles
+	 *         fingerprint
+	 */
+	private boolean isCurrent(Map<String, String> index) {
+		return karafPlatformModel.getPlatformBundlesFingerprint().equals(index.get(PLATFORM_FINGERPRINT_KEY));
+	}
+
+	/**
+	 * Schedules a build of the project that brings the start level index up
+	 * to date, so that callers of {@link #load()} are not blocked by it
+	 *
+	 * @param platformBundlesChanged
+	 *            true if only the platform bundles changed since the index was
+	 *            built, false if the project needs a full build
+	 */
+	private void scheduleBuild(final boolean platformBundlesChanged) {
+		final IProject project = karafProject.getProjectHandle();
+		final WorkspaceJob job = new WorkspaceJob("Updating Apache Karaf project: " + project.getName()) {
+
+			@Override
+			public IStatus runInWorkspace(final IProgressMonitor monitor) throws CoreException {
+				if (platformBundlesChanged) {
+					final Map<String, String> args = new HashMap<String, String>();
+					args.put(KarafProjectBuilder.PLATFORM_BUNDLES_CHANGED, Boolean.TRUE.toString());
+
+					project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, KarafProjectBuilder.ID, args, monitor);
+				} else {
+					project.build(IncrementalProjectBuilder.FULL_BUILD, KarafProjectBuilder.ID, null, monitor);
+				}
+
+				return Status.OK_STATUS;
+			}
+		};
+
+		job.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().buildRule());
+		job.schedule();
+	}
+
 	private String getSymbolicName(String bundleUrl) {
-		File bundlePath = new File(baseBundlesDir, converter.getPath(bundleUrl));
-		BundleDescription bundleDescription = karafPlatformModel.getState().getBundleByLocation(bundlePath.getAbsolutePath());
+		File bundlePath = artifactLocator.findLocalFile(bundleUrl);
+		if (bundlePath == null) {
+			bundlePath = artifactLocator.getSystemFile(bundleUrl);
+		}
+		BundleDescription bundleDescription = karafPlatformModel.getBundleByLocation(bundlePath.getAbsolutePath());
 		if (bundleDescription != null) {
 			return bundleDescription.getSymbolicName();
 		} else {
@@ -18,6 +18,7 @@
  */
 package org.apache.karaf.eik.ui.features;
 
+import org.apache.karaf.eik.core.MvnCoordinate;
 import org.apache.karaf.eik.core.features.Bundle;
 import org.apache.karaf.eik.core.features.Feature;
 import org.apache.karaf.eik.core.features.Features;
@@ -104,9 +105,9 @@ public final class FeaturesLabelProvider extends LabelProvider implements ITable
         } else if (element instanceof Bundle) {
             final Bundle bundle = (Bundle) element;
             final String label;
-            if (bundle.getBundleUrl().startsWith(MVN_URL_PREFIX)) {
-                final String[] bundleComponents = bundle.getBundleUrl().split("/"); //$NON-NLS-1$
-                label = bundleComponents[1];
+            final MvnCoordinate coordinate = MvnCoordinate.parse(bundle.getBundleUrl());
+            if (coordinate != null) {
+                label = coordinate.getArtifactId();
             } else {
                 label = element.toString();
             }
@@ -0,0 +1,494 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.ui.features;
+
+import org.apache.karaf.eik.core.MvnCoordinate;
+import org.apache.karaf.eik.core.PropertiesFileCache;
+import org.apache.karaf.eik.core.features.FeaturesRepository;
+import org.apache.karaf.eik.core.features.FeaturesRepositoryCodec;
+import org.apache.karaf.eik.core.features.StaxFeaturesRepository;
+import org.apache.karaf.eik.ui.IKarafProject;
+import org.apache.karaf.eik.ui.KarafUIPluginActivator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A persistent cache of resolved {@link FeaturesRepository}s kept in the
+ * {@code .bin/cache/features} folder of an {@link IKarafProject}. Each entry
+ * holds the parsed features model, in the binary form written by
+ * {@link FeaturesRepositoryCodec}, together with the information needed to
+ * decide whether the source of the repository has changed:
+ * <ul>
+ * <li>released {@code mvn:} repositories never change and are always served
+ * from the cache</li>
+ * <li>{@code file:} repositories are served from the cache while their size
+ * and modification time are unchanged</li>
+ * <li>{@code http:} repositories are revalidated with the {@code ETag} and
+ * {@code Last-Modified} headers of the previous response</li>
+ * <li>anything else, including {@code mvn:} snapshots, is fetched again but
+ * is only parsed if its content digest differs from the cached entry</li>
+ * </ul>
+ * The validation data is written in a header in front of the model, so that
+ * these decisions only read the header; the model is decoded once an entry
+ * is known to be usable.
+ */
+public final class FeaturesRepositoryCache {
+
+    private static final int MAGIC = 0x4B464302;
+
+    private static final String CACHE_FOLDER = "cache";
+
+    /**
+     * The header of a cache entry and, once read, its repository
+     */
+    private static final class Entry {
+
+        private String repositoryUrl;
+
+        private String repositoryName;
+
+        private String eTag;
+
+        private String lastModified;
+
+        private long sourceModified;
+
+        private long sourceLength;
+
+        private byte[] digest;
+
+        private StaxFeaturesRepository repository;
+
+    }
+
+    /**
+     * The size and modification time of a {@code file:} repository taken
+     * before its content is read
+     */
+    public static final class SourceStamp {
+
+        private final long modified;
+
+        private final long length;
+
+        private final long time;
+
+        private SourceStamp(final File sourceFile) {
+            this.time = System.currentTimeMillis();
+            this.modified = sourceFile.lastModified();
+            this.length = sourceFile.length();
+        }
+
+        /**
+         * Determines whether the source file is still as stamped and was not
+         * modified so shortly before the stamp that a further change could
+         * leave its modification time unchanged
+         */
+        private boolean isStable(final File sourceFile) {
+            return sourceFile.lastModified() == modified
+                    && sourceFile.length() == length
+                    && !PropertiesFileCache.isRacilyModified(modified, time);
+        }
+    }
+
+    private final File cacheDirectory;
+
+    public FeaturesRepositoryCache(final IKarafProject karafProject) {
+        this.cacheDirectory = karafProject.getFolder(CACHE_FOLDER).getRawLocation().append("features").toFile();
+    }
+
+    /**
+     * Returns the cached {@link FeaturesRepository} for the specified URL if it
+     * can be used without contacting the source of the repository
+     *
+     * @param repositoryUrl
+     *            the URL of the features repository
+     * @return the cached {@code FeaturesRepository} or null if there is no
+     *         entry or the entry must be revalidated
+     */
+    public FeaturesRepository getIfFresh(final String repositoryUrl) {
+        final Entry entry = readEntry(repositoryUrl, false);
+        if (entry == null) {
+            return null;
+        }
+
+        if (isReleasedMavenUrl(repositoryUrl)) {
+            return readRepository(entry);
+        }
+
+        final File sourceFile = toFile(repositoryUrl);
+        if (sourceFile != null
+                && sourceFile.lastModified() == entry.sourceModified
+                && sourceFile.length() == entry.sourceLength)
+        {
+            return readRepository(entry);
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds the conditional request headers of the cached entry, if any, to a
+     * {@link URLConnection} that has not yet been connected and returns the
+     * cached {@link FeaturesRepository} if the server reports that it has not
+     * been modified
+     *
+     * @param repositoryUrl
+     *            the URL of the features repository
+     * @param connection
+     *            the unconnected {@code URLConnection} for the URL
+     * @return the cached {@code FeaturesRepository} or null if the repository
+     *         must be read from the connection
+     * @throws IOException
+     *             if there is a problem connecting
+     */
+    public FeaturesRepository getIfNotModified(final String repositoryUrl, final URLConnection connection) throws IOException {
+        if (!(connection instanceof HttpURLConnection)) {
+            return null;
+        }
+
+        final Entry entry = readEntry(repositoryUrl, false);
+        if (entry == null || (entry.eTag == null && entry.lastModified == null)) {
+            return null;
+        }
+
+        if (entry.eTag != null) {
+            connection.setRequestProperty("If-None-Match", entry.eTag);
+        }
+
+        if (entry.lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+
+        if (((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            final FeaturesRepository repository = readRepository(entry);
+            if (repository == null) {
+                throw new IOException("The cached features repository is no longer available: " + repositoryUrl);
+            }
+
+            return repository;
+        }
+
+        return null;
+    }
+
+    /**
+     * Stamps the source of a {@code file:} repository. This must be done
+     * before the content is opened so that a file that changes while it is
+     * read is not cached.
+     *
+     * @param repositoryUrl
+     *            the URL of the features repository
+     * @return the {@link SourceStamp} or null if the URL is not a
+     *         {@code file:} URL
+     */
+    public SourceStamp stampSource(final String repositoryUrl) {
+        final File sourceFile = toFile(repositoryUrl);
+        return sourceFile != null ? new SourceStamp(sourceFile) : null;
+    }
+
+    /**
+     * Reads a features repository from the specified {@link InputStream} and
+     * stores it in the cache. If the content is identical to the cached entry
+     * the cached model is returned and the document is not parsed again.
+     *
+     * @param repositoryUrl
+     *            the URL of the features repository
+     * @param repositoryName
+     *            the name of the features repository
+     * @param in
+     *            the content of the features repository
+     * @param connection
+     *            the {@link URLConnection} the content was read from or null;
+     *            used to record the HTTP validators of the response
+     * @param sourceStamp
+     *            the {@link SourceStamp} taken by {@link #stampSource(String)}
+     *            before the content was opened or null; a {@code file:}
+     *            repository is only cached if it is unchanged since
+     * @return the {@link FeaturesRepository}
+     * @throws IOException
+     *             if there is a problem reading the content
+     */
+    public FeaturesRepository put(final String repositoryUrl, final String repositoryName, final InputStream in, final URLConnection connection, final SourceStamp sourceStamp) throws IOException {
+        final byte[] content = readFully(in);
+        final byte[] digest = digest(content);
+
+        final Entry cached = readEntry(repositoryUrl, false);
+
+        final Entry entry = new Entry();
+        entry.repositoryUrl = repositoryUrl;
+        entry.repositoryName = repositoryName;
+        entry.digest = digest;
+
+        if (cached != null && Arrays.equals(cached.digest, digest) && repositoryName.equals(cached.repositoryName)) {
+            entry.repository = readRepository(cached);
+        }
+
+        if (entry.repository == null) {
+            entry.repository = new StaxFeaturesRepository(repositoryName, new ByteArrayInputStream(content));
+        }
+
+        if (connection instanceof HttpURLConnection) {
+            entry.eTag = connection.getHeaderField("ETag");
+            entry.lastModified = connection.getHeaderField("Last-Modified");
+        }
+
+        final File sourceFile = toFile(repositoryUrl);
+        if (sourceFile != null) {
+            if (sourceStamp == null || !sourceStamp.isStable(sourceFile)) {
+                return entry.repository;
+            }
+
+            entry.sourceModified = sourceStamp.modified;
+            entry.sourceLength = sourceStamp.length;
+        }
+
+        writeEntry(entry);
+
+        return entry.repository;
+    }
+
+    /**
+     * Determines the cache file of a repository URL
+     */
+    private File getCacheFile(final String repositoryUrl) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-1").digest(repositoryUrl.getBytes("UTF-8"));
+
+            final StringBuilder sb = new StringBuilder(hash.length * 2 + 4);
+            for (final byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return new File(cacheDirectory, sb.append(".bin").toString());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes the repository of an entry whose header was read earlier. The
+     * entry is read again and only used if its digest is unchanged, since
+     * another build may have replaced it in the meantime.
+     *
+     * @return the repository or null if the entry changed or is unreadable
+     */
+    private StaxFeaturesRepository readRepository(final Entry header) {
+        final Entry entry = readEntry(header.repositoryUrl, true);
+        if (entry == null || !Arrays.equals(entry.digest, header.digest)) {
+            return null;
+        }
+
+        return entry.repository;
+    }
+
+    /**
+     * Reads the header of a cache entry and, if requested, its repository
+     *
+     * @param repositoryUrl
+     *            the URL of the features repository
+     * @param readRepository
+     *            true to decode the repository that follows the header
+     * @return the {@link Entry} or null if there is no readable entry
+     */
+    private Entry readEntry(final String repositoryUrl, final boolean readRepository) {
+        final File cacheFile = getCacheFile(repositoryUrl);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+
+            final Entry entry = new Entry();
+            entry.repositoryUrl = in.readUTF();
+            entry.repositoryName = in.readUTF();
+            entry.eTag = readNullableString(in);
+            entry.lastModified = readNullableString(in);
+            entry.sourceModified = in.readLong();
+            entry.sourceLength = in.readLong();
+            entry.digest = new byte[in.readInt()];
+            in.readFully(entry.digest);
+
+            if (!repositoryUrl.equals(entry.repositoryUrl)) {
+                return null;
+            }
+
+            if (readRepository) {
+                entry.repository = FeaturesRepositoryCodec.read(in);
+            }
+
+            return entry;
+        } catch (final IOException e) {
+            KarafUIPluginActivator.getLogger().warn("Discarding unreadable features repository cache entry: " + cacheFile.getAbsolutePath(), e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a cache entry to a temporary file and renames it in to place so
+     * that readers never see a partially written entry
+     */
+    private void writeEntry(final Entry entry) {
+        final File cacheFile = getCacheFile(entry.repositoryUrl);
+
+        DataOutputStream out = null;
+        File tempFile = null;
+        try {
+            if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+                throw new IOException("Unable to create cache directory: " + cacheDirectory.getAbsolutePath());
+            }
+
+            tempFile = File.createTempFile("features", ".tmp", cacheDirectory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+            out.writeInt(MAGIC);
+            out.writeUTF(entry.repositoryUrl);
+            out.writeUTF(entry.repositoryName);
+            writeNullableString(out, entry.eTag);
+            writeNullableString(out, entry.lastModified);
+            out.writeLong(entry.sourceModified);
+            out.writeLong(entry.sourceLength);
+            out.writeInt(entry.digest.length);
+            out.write(entry.digest);
+
+            FeaturesRepositoryCodec.write(entry.repository, out);
+
+            out.close();
+            out = null;
+
+            if (!tempFile.renameTo(cacheFile)) {
+                cacheFile.delete();
+                if (!tempFile.renameTo(cacheFile)) {
+                    throw new IOException("Unable to rename " + tempFile.getAbsolutePath() + " to " + cacheFile.getAbsolutePath());
+                }
+            }
+
+            tempFile = null;
+        } catch (final IOException e) {
+            KarafUIPluginActivator.getLogger().warn("Unable to cache features repository: " + entry.repositoryUrl, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (final IOException e) {
+                    // ignore
+                }
+            }
+
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static byte[] digest(final byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(content);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Released Maven artifacts are immutable; snapshots and unversioned
+     * artifacts are not
+     */
+    private static boolean isReleasedMavenUrl(final String repositoryUrl) {
+        final MvnCoordinate coordinate = MvnCoordinate.parse(repositoryUrl);
+        return coordinate != null && !coordinate.isSnapshot() && !MvnCoordinate.LATEST_VERSION.equals(coordinate.getVersion());
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        final byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static String readNullableString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Converts a {@code file:} URL to a {@link File}
+     *
+     * @return the {@code File} or null if the URL is not a {@code file:} URL
+     */
+    private static File toFile(final String repositoryUrl) {
+        if (!repositoryUrl.startsWith("file:")) {
+            return null;
+        }
+
+        try {
+            return new File(new URL(repositoryUrl).toURI());
+        } catch (final IOException e) {
+            return null;
+        } catch (final URISyntaxException e) {
+            return null;
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeNullableString(final DataOutputStream out, final String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+}
@@ -20,26 +20,38 @@ package org.apache.karaf.eik.ui.features;
 
 import org.apache.karaf.eik.core.KarafCorePluginUtils;
 import org.apache.karaf.eik.core.KarafPlatformModel;
+import org.apache.karaf.eik.core.MvnCoordinate;
 import org.apache.karaf.eik.core.PropertyUtils;
 import org.apache.karaf.eik.core.configuration.FeaturesSection;
 import org.apache.karaf.eik.core.features.FeaturesRepository;
-import org.apache.karaf.eik.core.features.XmlFeaturesRepository;
+import org.apache.karaf.eik.core.features.Repository;
 import org.apache.karaf.eik.ui.IKarafProject;
 import org.apache.karaf.eik.ui.KarafUIPluginActivator;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.ops4j.pax.url.mvn.MvnURLConnectionFactory;
@@ -49,11 +61,61 @@ import org.ops4j.pax.url.mvn.MvnURLConnectionFactory;
  * {@code org.apache.karaf.features.cfg} and examines all of the referenced
  * Features Repositories. It then attempts to resolve each of the repositories
  * in order to produce a {@link List} of {@link FeaturesRepository}
+ * <p>
+ * The {@code <repository>} references of each Features repository are
+ * followed transitively so that every reachable repository is resolved once.
+ * Repositories are fetched concurrently on a bounded pool of threads. A
+ * repository that cannot be loaded, or that takes longer than
+ * {@link #REPOSITORY_TIMEOUT_MILLIS} to load, is reported in the returned
+ * {@link IStatus} without affecting the other repositories.
+ * <p>
+ * PAX URL opens its connections without timeouts and blocking reads ignore
+ * interrupts, so the thread of a timed out fetch may stay blocked. The pool
+ * gains a thread for every timed out fetch so that the remaining repositories
+ * are still fetched with full concurrency.
  */
 public final class FeaturesResolverJob extends Job {
 
+    /**
+     * A {@link Callable} that fetches a single Features repository and records
+     * when it started so that its timeout only covers the time it was running
+     */
+    private final class RepositoryFetch implements Callable<FeaturesRepository> {
+
+        private final String repository;
+
+        private volatile long startTime;
+
+        private RepositoryFetch(final String repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        public FeaturesRepository call() throws Exception {
+            startTime = System.currentTimeMillis();
+            return fetchRepository(repository);
+        }
+
+        /**
+         * Determines whether this fetch has been running for longer than
+         * {@link #REPOSITORY_TIMEOUT_MILLIS}
+         *
+         * @return true if the fetch has timed out, false otherwise
+         */
+        private boolean isTimedOut() {
+            final long started = startTime;
+            return started != 0 && System.currentTimeMillis() - started > REPOSITORY_TIMEOUT_MILLIS;
+        }
+    }
+
+    private static final int MAX_CONCURRENT_FETCHES = 8;
+
     private static final String ORG_OPS4J_PAX_URL_MVN_CFG = "org.ops4j.pax.url.mvn.cfg";
 
+    private static final long POLL_INTERVAL_MILLIS = 250;
+
+    private static final int REPOSITORY_TIMEOUT_MILLIS = 60000;
+
     private final List<FeaturesRepository> featuresRepositories =
             Collections.synchronizedList(new ArrayList<FeaturesRepository>());
 
@@ -61,6 +123,10 @@ public final class FeaturesResolverJob extends Job {
 
     private final KarafPlatformModel karafPlatformModel;
 
+    private volatile MvnArtifactResolver mvnArtifactResolver;
+
+    private FeaturesRepositoryCache repositoryCache;
+
     public FeaturesResolverJob(final String name, final KarafPlatformModel karafPlatformModel, final FeaturesSection featuresSection) {
         super("Resolving Features for " + name);
 
@@ -68,6 +134,17 @@ public final class FeaturesResolverJob extends Job {
         this.karafPlatformModel = karafPlatformModel;
     }
 
+    /**
+     * Getter for the {@link MvnArtifactResolver} that this job used to
+     * resolve {@code mvn:} URLs
+     *
+     * @return the {@code MvnArtifactResolver} or null if the job has not run
+     *         or could not load the Maven URL configuration
+     */
+    public MvnArtifactResolver getMvnArtifactResolver() {
+        return mvnArtifactResolver;
+    }
+
     /**
      * Getter for the {@link List} of {@link FeaturesRepository} objects. This
      * {@code List} is read-only and is a synchronized list via
@@ -88,93 +165,250 @@ public final class FeaturesResolverJob extends Job {
     }
 
     /**
-     * Helper method that resolves Karaf Features.
+     * Fetches and parses a single Features repository, consulting the
+     * {@link FeaturesRepositoryCache} first
+     *
+     * @param repository
+     *            the URL of the Features repository
+     * @return the {@link FeaturesRepository}
+     * @throws Exception
+     *             if the repository cannot be fetched or parsed
+     */
+    private FeaturesRepository fetchRepository(final String repository) throws Exception {
+        final MvnCoordinate coordinate = MvnCoordinate.parse(repository);
+
+        final String repositoryName;
+        if (coordinate != null) {
+            repositoryName = coordinate.getArtifactId() + "-" + coordinate.getVersion(); //$NON-NLS-1$
+        } else {
+            repositoryName = repository;
+        }
+
+        FeaturesRepository featuresRepository = repositoryCache.getIfFresh(repository);
+        if (featuresRepository != null) {
+            return featuresRepository;
+        }
+
+        if (coordinate != null) {
+            final InputStream stream = mvnArtifactResolver.openStream(repository);
+            try {
+                return repositoryCache.put(repository, repositoryName, stream, null, null);
+            } finally {
+                stream.close();
+            }
+        }
+
+        final URLConnection connection = new URL(repository).openConnection();
+        connection.setConnectTimeout(REPOSITORY_TIMEOUT_MILLIS);
+        connection.setReadTimeout(REPOSITORY_TIMEOUT_MILLIS);
+
+        featuresRepository = repositoryCache.getIfNotModified(repository, connection);
+        if (featuresRepository != null) {
+            return featuresRepository;
+        }
+
+        final FeaturesRepositoryCache.SourceStamp sourceStamp = repositoryCache.stampSource(repository);
+
+        final InputStream stream = connection.getInputStream();
+        try {
+            return repositoryCache.put(repository, repositoryName, stream, connection, sourceStamp);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Loads the OPS4j PAX mvn URL configuration of the Karaf platform and
+     * interpolates it with the runtime properties of the Karaf project
+     *
+     * @param karafProject
+     *            the {@link IKarafProject}
+     * @return the PAX mvn URL configuration
+     * @throws CoreException
+     *             if the configuration cannot be loaded
+     */
+    private Properties loadMvnConfiguration(final IKarafProject karafProject) throws CoreException {
+        final Properties configuration =
+                KarafCorePluginUtils.loadProperties(karafPlatformModel.getConfigurationDirectory().toFile(), ORG_OPS4J_PAX_URL_MVN_CFG);
+
+        PropertyUtils.interpolateVariables(configuration, karafProject.getRuntimeProperties());
+
+        final String defaultRepos = (String) configuration.get("org.ops4j.pax.url.mvn.defaultRepositories");
+        final String repos = (String) configuration.get("org.ops4j.pax.url.mvn.repositories");
+
+        // In karaf-3.0.0, default repo may be null.
+        // First check if it's null an if not then add it to repo list
+        ArrayList<String> reposList = new ArrayList<String>();
+        if (defaultRepos != null)
+            reposList.add(defaultRepos);
+        if (repos != null)
+            reposList.add(repos);
+        final String combinedRepos = KarafCorePluginUtils.join(reposList, ",");
+
+        configuration.put("org.ops4j.pax.url.mvn.repositories", removeInvalidSuffixes(combinedRepos));
+
+        return configuration;
+    }
+
+    /**
+     * Helper method that resolves Karaf Features. The repositories listed in
+     * the features configuration are resolved first; the {@code <repository>}
+     * references of each layer of resolved repositories are then resolved in
+     * turn until no new repository URLs are discovered.
      *
      * @param monitor the {@link IProgressMonitor} instance
      * @return the {@link Status#OK_STATUS} if the Features are successfully
-     * resolved
+     * resolved, otherwise a {@link MultiStatus} describing each repository
+     * that could not be loaded
      */
     private IStatus resolveFeatures(final IProgressMonitor monitor) {
-        monitor.beginTask("Loading Karaf Features", featuresSection.getRepositoryList().size());
+        final Set<String> seenRepositories = new LinkedHashSet<String>(featuresSection.getRepositoryList());
+
+        monitor.beginTask("Loading Karaf Features", IProgressMonitor.UNKNOWN);
         try {
+            if (seenRepositories.isEmpty()) {
+                return Status.OK_STATUS;
+            }
 
-            for (final String repository : featuresSection.getRepositoryList()) {
+            final IKarafProject karafProject = (IKarafProject) karafPlatformModel.getAdapter(IKarafProject.class);
+            repositoryCache = new FeaturesRepositoryCache(karafProject);
 
-                if (monitor.isCanceled()) {
-                    return Status.CANCEL_STATUS;
-                }
+            try {
+                final MvnURLConnectionFactory connectionFactory = MvnURLConnectionFactory.getInstance(loadMvnConfiguration(karafProject));
+                mvnArtifactResolver = new MvnArtifactResolver(karafPlatformModel, connectionFactory);
+            } catch (final CoreException e) {
+                return new Status(IStatus.ERROR, KarafUIPluginActivator.PLUGIN_ID, "Unable to load the Maven URL configuration: " + ORG_OPS4J_PAX_URL_MVN_CFG, e);
+            }
 
-                try {
-                    // Begin: Refactor this out in to an OPS4j mvn URL configuration
-                    final Properties mvnConfiguration =
-                            KarafCorePluginUtils.loadProperties(karafPlatformModel.getConfigurationDirectory().toFile(), ORG_OPS4J_PAX_URL_MVN_CFG);
-
-                    final IKarafProject karafProject = (IKarafProject) karafPlatformModel.getAdapter(IKarafProject.class);
-                    final Properties runtimeProperties = karafProject.getRuntimeProperties();
-
-                    PropertyUtils.interpolateVariables(mvnConfiguration, runtimeProperties);
-
-                    final String defaultRepos = (String) mvnConfiguration.get("org.ops4j.pax.url.mvn.defaultRepositories");
-                    final String repos = (String) mvnConfiguration.get("org.ops4j.pax.url.mvn.repositories");
-
-                    // In karaf-3.0.0, default repo may be null.
-                    // First check if it's null an if not then add it to repo list
-                    ArrayList<String> reposList = new ArrayList<String>();
-                    if (defaultRepos != null)
-                        reposList.add(defaultRepos);
-                    if (repos != null)
-                        reposList.add(repos);
-                    final String combinedRepos = KarafCorePluginUtils.join(reposList, ",");
-
-                    mvnConfiguration.put("org.ops4j.pax.url.mvn.repositories", removeInvalidSuffixes(combinedRepos));
-                    // End: Refactor
-
-                    final String repositoryName;
-                    final InputStream stream;
-                    if (repository.startsWith(FeaturesLabelProvider.MVN_URL_PREFIX)) {
-                        final MvnURLConnectionFactory urlConnectionFactory = new MvnURLConnectionFactory(mvnConfiguration);
-                        stream = urlConnectionFactory.create(new URL(repository)).getInputStream();
-
-                        final String[] repositoryComponents = repository.split("/"); //$NON-NLS-1$
-                        repositoryName = repositoryComponents[1] + "-" + repositoryComponents[2]; //$NON-NLS-1$
-                    } else {
-                        stream = new URL(repository).openStream();
-
-                        repositoryName = repository;
+            final MultiStatus failures = new MultiStatus(KarafUIPluginActivator.PLUGIN_ID, IStatus.OK, "Unable to load Features repositories", null);
+
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    MAX_CONCURRENT_FETCHES,
+                    MAX_CONCURRENT_FETCHES,
+                    0L,
+                    TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+
+                        private final AtomicInteger threadCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread thread = new Thread(r, "Features Repository Fetcher " + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+            try {
+                List<String> layer = new ArrayList<String>(seenRepositories);
+                while (!layer.isEmpty()) {
+                    final List<FeaturesRepository> resolved = resolveLayer(layer, executor, failures, monitor);
+                    if (resolved == null) {
+                        return Status.CANCEL_STATUS;
                     }
 
-                    final FeaturesRepository newRepo = new XmlFeaturesRepository(repositoryName, stream);
-                    featuresRepositories.add(newRepo);
+                    featuresRepositories.addAll(resolved);
 
-                    monitor.worked(1);
-
-                } catch (final MalformedURLException e) {
-                    if (monitor.isCanceled()) {
-                        return Status.CANCEL_STATUS;
-                    } else {
-                        return new Status(IStatus.WARNING, KarafUIPluginActivator.PLUGIN_ID, "Unable determine location for Features repository: " + repository, e);
-                    }
-                } catch (final IOException e) {
-                    if (monitor.isCanceled()) {
-                        return Status.CANCEL_STATUS;
-                    } else {
-                        return new Status(IStatus.WARNING, KarafUIPluginActivator.PLUGIN_ID, "Unable load Features repository: " + repository, e);
-                    }
-                } catch (final CoreException e) {
-                    if (monitor.isCanceled()) {
-                        return Status.CANCEL_STATUS;
-                    } else {
-                        return new Status(IStatus.ERROR, KarafUIPluginActivator.PLUGIN_ID, "Unable load Features repository: " + repository, e);
+                    final List<String> nextLayer = new ArrayList<String>();
+                    for (final FeaturesRepository featuresRepository : resolved) {
+                        for (final Repository reference : featuresRepository.getFeatures().getRepositories()) {
+                            final String repositoryUrl = reference.getRepositoryUrl();
+                            if (repositoryUrl != null && repositoryUrl.length() > 0 && seenRepositories.add(repositoryUrl)) {
+                                nextLayer.add(repositoryUrl);
+                            }
+                        }
                     }
+
+                    layer = nextLayer;
                 }
+            } finally {
+                executor.shutdownNow();
             }
 
-            return Status.OK_STATUS;
+            return failures.isOK() ? Status.OK_STATUS : failures;
         } finally {
             monitor.done();
         }
     }
 
+    /**
+     * Fetches a layer of Features repositories concurrently
+     *
+     * @param repositories
+     *            the URLs of the Features repositories in this layer
+     * @param executor
+     *            the {@link ThreadPoolExecutor} used to fetch the repositories;
+     *            it gains a thread for each fetch that times out
+     * @param failures
+     *            the {@link MultiStatus} that collects the repositories that
+     *            could not be loaded
+     * @param monitor
+     *            the {@link IProgressMonitor} instance
+     * @return the {@link FeaturesRepository}s that were loaded, in the order of
+     *         {@code repositories}, or null if the job was canceled
+     */
+    private List<FeaturesRepository> resolveLayer(
+            final List<String> repositories,
+            final ThreadPoolExecutor executor,
+            final MultiStatus failures,
+            final IProgressMonitor monitor)
+    {
+        final List<RepositoryFetch> fetches = new ArrayList<RepositoryFetch>(repositories.size());
+        final List<Future<FeaturesRepository>> futures = new ArrayList<Future<FeaturesRepository>>(repositories.size());
+        for (final String repository : repositories) {
+            final RepositoryFetch fetch = new RepositoryFetch(repository);
+            fetches.add(fetch);
+            futures.add(executor.submit(fetch));
+        }
+
+        final List<FeaturesRepository> resolved = new ArrayList<FeaturesRepository>(repositories.size());
+        for (int i = 0; i < fetches.size(); i++) {
+            final RepositoryFetch fetch = fetches.get(i);
+            final Future<FeaturesRepository> future = futures.get(i);
+
+            monitor.subTask(fetch.repository);
+
+            while (true) {
+                if (monitor.isCanceled()) {
+                    return null;
+                }
+
+                try {
+                    resolved.add(future.get(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+                    break;
+                } catch (final TimeoutException e) {
+                    if (fetch.isTimedOut()) {
+                        future.cancel(true);
+                        replaceBlockedThread(executor);
+                        failures.add(new Status(IStatus.WARNING, KarafUIPluginActivator.PLUGIN_ID, "Timed out loading Features repository: " + fetch.repository));
+                        break;
+                    }
+                } catch (final ExecutionException e) {
+                    failures.add(new Status(IStatus.WARNING, KarafUIPluginActivator.PLUGIN_ID, "Unable to load Features repository: " + fetch.repository, e.getCause()));
+                    break;
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+
+            monitor.worked(1);
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Adds a thread to the pool in place of one that may remain blocked in a
+     * timed out fetch. The maximum pool size is raised first, since the core
+     * pool size may not exceed it.
+     */
+    private static void replaceBlockedThread(final ThreadPoolExecutor executor) {
+        executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+        executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+    }
+
     private String removeInvalidSuffixes(String mergedRepositories) {
         String[] repositories = mergedRepositories.split(",");
 
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.ui.features;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.karaf.eik.core.KarafPlatformModel;
+import org.apache.karaf.eik.core.MvnArtifactLocator;
+import org.apache.karaf.eik.core.MvnCoordinate;
+import org.ops4j.pax.url.mvn.MvnURLConnectionFactory;
+
+/**
+ * Resolves {@code mvn:} URLs from the local file system before going to the
+ * network. The layers are consulted in order:
+ * <ol>
+ * <li>the Karaf installation's {@code system/} directory</li>
+ * <li>the local Maven repository</li>
+ * <li>the remote repositories configured for the {@link MvnURLConnectionFactory}</li>
+ * </ol>
+ * {@code SNAPSHOT} versions are the exception: they are resolved remotely
+ * first so that newer snapshots are picked up, and the local copy is only
+ * used when the remote repositories cannot be reached.<br>
+ * <br>
+ * URLs that every remote repository reported as not found are remembered for
+ * {@link #NEGATIVE_CACHE_TTL_MILLIS} so that they are not retried on every
+ * build. Failures that may be transient, such as an unreachable repository,
+ * are not remembered. An artifact that appears on disk in the meantime is
+ * still found, since the local layers are checked before the negative cache.
+ */
+public class MvnArtifactResolver {
+
+    /**
+     * The time that an unresolvable {@code mvn:} URL is not retried remotely
+     */
+    public static final long NEGATIVE_CACHE_TTL_MILLIS = 30 * 60 * 1000L;
+
+    /**
+     * The connect and read timeout of the requests that check whether a
+     * remote repository has an artifact
+     */
+    private static final int PROBE_TIMEOUT_MILLIS = 10 * 1000;
+
+    /**
+     * The remote misses of each shared {@link MvnURLConnectionFactory}, keyed
+     * by {@code mvn:} URL, with the time they expire
+     */
+    private static final Map<MvnURLConnectionFactory, ConcurrentMap<String, Long>> MISSES =
+            new WeakHashMap<MvnURLConnectionFactory, ConcurrentMap<String, Long>>();
+
+    private final MvnURLConnectionFactory connectionFactory;
+
+    private final ConcurrentMap<String, Long> misses;
+
+    private final File localRepository;
+
+    private final MvnArtifactLocator artifactLocator;
+
+    /**
+     * Constructs a resolver for a Karaf platform
+     *
+     * @param karafPlatformModel
+     *            the {@link KarafPlatformModel} whose {@code system/}
+     *            directory is searched first
+     * @param connectionFactory
+     *            the {@link MvnURLConnectionFactory} used for the local
+     *            repository location and the remote repositories
+     */
+    public MvnArtifactResolver(final KarafPlatformModel karafPlatformModel, final MvnURLConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+        this.localRepository = connectionFactory.getLocalRepository();
+        this.artifactLocator = new MvnArtifactLocator(karafPlatformModel.getPluginRootDirectory().toFile(), localRepository);
+
+        synchronized (MISSES) {
+            ConcurrentMap<String, Long> factoryMisses = MISSES.get(connectionFactory);
+            if (factoryMisses == null) {
+                factoryMisses = new ConcurrentHashMap<String, Long>();
+                MISSES.put(connectionFactory, factoryMisses);
+            }
+
+            this.misses = factoryMisses;
+        }
+    }
+
+    /**
+     * Opens an {@link InputStream} to the artifact of a {@code mvn:} URL
+     *
+     * @param mvnUrl
+     *            the {@code mvn:} URL
+     * @return the {@code InputStream} of the artifact
+     * @throws IOException
+     *             if the artifact cannot be found or read
+     */
+    public InputStream openStream(final String mvnUrl) throws IOException {
+        final File localFile = findLocalFile(mvnUrl);
+
+        final MvnCoordinate coordinate = MvnCoordinate.parse(mvnUrl);
+        if (coordinate != null && coordinate.isSnapshot()) {
+            try {
+                return openRemoteStream(mvnUrl);
+            } catch (final IOException e) {
+                if (localFile == null) {
+                    throw e;
+                }
+
+                return new FileInputStream(localFile);
+            }
+        }
+
+        if (localFile != null) {
+            return new FileInputStream(localFile);
+        }
+
+        final Long missExpires = misses.get(mvnUrl);
+        if (missExpires != null) {
+            if (missExpires.longValue() > System.currentTimeMillis()) {
+                throw new FileNotFoundException("Unable to resolve " + mvnUrl + " (not retried until "
+                        + new Date(missExpires.longValue()) + ")");
+            }
+
+            misses.remove(mvnUrl);
+        }
+
+        try {
+            return openRemoteStream(mvnUrl);
+        } catch (final IOException e) {
+            if (coordinate != null && isNotFound(coordinate)) {
+                misses.put(mvnUrl, Long.valueOf(System.currentTimeMillis() + NEGATIVE_CACHE_TTL_MILLIS));
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the artifact of a {@code mvn:} URL in the Karaf {@code system/}
+     * directory or the local Maven repository
+     *
+     * @param mvnUrl
+     *            the {@code mvn:} URL
+     * @return the artifact {@link File} or null if it is not available locally
+     */
+    public File findLocalFile(final String mvnUrl) {
+        return artifactLocator.findLocalFile(mvnUrl);
+    }
+
+    /**
+     * Ensures that the artifact of a {@code mvn:} URL is available on disk,
+     * downloading it in to the local Maven repository if it is not already in
+     * the Karaf {@code system/} directory or the local repository
+     *
+     * @param mvnUrl
+     *            the {@code mvn:} URL
+     * @return true if the artifact was downloaded, false if it was already
+     *         available locally
+     * @throws IOException
+     *             if the artifact cannot be resolved or written
+     */
+    public boolean install(final String mvnUrl) throws IOException {
+        if (findLocalFile(mvnUrl) != null) {
+            return false;
+        }
+
+        final MvnCoordinate coordinate = MvnCoordinate.parse(mvnUrl);
+        if (coordinate == null || MvnCoordinate.LATEST_VERSION.equals(coordinate.getVersion())) {
+            throw new IOException("Unable to determine the local repository location of " + mvnUrl);
+        }
+
+        if (localRepository == null) {
+            throw new IOException("No local Maven repository is configured");
+        }
+
+        final File target = new File(localRepository, coordinate.getPath());
+        final File directory = target.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory.getAbsolutePath());
+        }
+
+        final File tempFile = File.createTempFile(target.getName(), ".part", directory);
+        try {
+            final InputStream in = openStream(mvnUrl);
+            try {
+                final OutputStream out = new FileOutputStream(tempFile);
+                try {
+                    final byte[] buffer = new byte[8192];
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, bytesRead);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            if (!tempFile.renameTo(target) && !target.isFile()) {
+                throw new IOException("Unable to rename " + tempFile.getAbsolutePath() + " to " + target.getAbsolutePath());
+            }
+        } finally {
+            tempFile.delete();
+        }
+
+        return true;
+    }
+
+    /**
+     * Opens the artifact of a {@code mvn:} URL from the remote repositories.
+     * PAX URL reports every failure, including an artifact that no repository
+     * has, as a {@link RuntimeException}; it is converted to an
+     * {@link IOException}.
+     */
+    private InputStream openRemoteStream(final String mvnUrl) throws IOException {
+        try {
+            return connectionFactory.create(new URL(mvnUrl)).getInputStream();
+        } catch (final RuntimeException e) {
+            throw new IOException("Unable to resolve " + mvnUrl, e);
+        }
+    }
+
+    /**
+     * Checks whether every remote release repository definitively reported an
+     * artifact as not found. Any other outcome, including an unreachable
+     * repository, a server error or an unexpected response, is treated as a
+     * possibly transient failure. URLs that name their own repository or ask
+     * for the {@code LATEST} version are never reported as not found.
+     *
+     * @param coordinate
+     *            the coordinates of the artifact
+     * @return true if the artifact does not exist in any remote repository,
+     *         false if it may exist
+     */
+    private boolean isNotFound(final MvnCoordinate coordinate) {
+        if (coordinate.getRepository() != null || MvnCoordinate.LATEST_VERSION.equals(coordinate.getVersion())) {
+            return false;
+        }
+
+        final List<URL> repositories;
+        try {
+            repositories = connectionFactory.getReleaseRepositories();
+        } catch (final MalformedURLException e) {
+            return false;
+        }
+
+        if (repositories.isEmpty()) {
+            return false;
+        }
+
+        for (final URL repository : repositories) {
+            if (!isNotFound(repository, coordinate.getPath())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isNotFound(final URL repository, final String path) {
+        String base = repository.toExternalForm();
+        if (!base.endsWith("/")) {
+            base = base + "/";
+        }
+
+        try {
+            final URL artifactUrl = new URL(base + path);
+            if ("file".equals(artifactUrl.getProtocol())) {
+                return !new File(artifactUrl.toURI()).exists();
+            }
+
+            final URLConnection connection = artifactUrl.openConnection();
+            if (!(connection instanceof HttpURLConnection)) {
+                return false;
+            }
+
+            final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            httpConnection.setRequestMethod("HEAD");
+            httpConnection.setConnectTimeout(PROBE_TIMEOUT_MILLIS);
+            httpConnection.setReadTimeout(PROBE_TIMEOUT_MILLIS);
+            try {
+                final int responseCode = httpConnection.getResponseCode();
+                return responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_GONE;
+            } finally {
+                httpConnection.disconnect();
+            }
+        } catch (final IOException e) {
+            return false;
+        } catch (final URISyntaxException e) {
+            return false;
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+}
@@ -25,7 +25,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.apache.karaf.eik.core.KarafCorePluginUtils;
+import org.apache.karaf.eik.core.DirectoryScanner;
 import org.apache.karaf.eik.core.KarafPlatformModel;
 import org.eclipse.pde.core.target.ITargetLocation;
 import org.eclipse.pde.internal.core.target.DirectoryBundleContainer;
@@ -57,15 +57,15 @@ public final class KarafLaunchUtils {
      */
     public static Collection<File> getJarDirectories(final KarafPlatformModel karafPlatformModel) {
         final List<File> jarFiles = new ArrayList<File>();
-        KarafCorePluginUtils.getJarFileList(
+        jarFiles.addAll(DirectoryScanner.scan(
                 karafPlatformModel.getPluginRootDirectory().toFile(),
-                jarFiles,
-                MAX_DIRECTORY_RECURSE_DEPTH);
+                "*.jar",
+                MAX_DIRECTORY_RECURSE_DEPTH));
 
-        KarafCorePluginUtils.getJarFileList(
+        jarFiles.addAll(DirectoryScanner.scan(
                 karafPlatformModel.getUserDeployedDirectory().toFile(),
-                jarFiles,
-                MAX_DIRECTORY_RECURSE_DEPTH);
+                "*.jar",
+                MAX_DIRECTORY_RECURSE_DEPTH));
 
         // Add each JAR file's directory to the list of directories that contain
         // plugins
@@ -19,7 +19,7 @@
 package org.apache.karaf.eik.ui.model;
 
 import org.apache.karaf.eik.core.features.FeaturesRepository;
-import org.apache.karaf.eik.core.features.XmlFeaturesRepository;
+import org.apache.karaf.eik.core.features.StaxFeaturesRepository;
 import org.apache.karaf.eik.ui.IKarafProject;
 import org.apache.karaf.eik.ui.KarafUIPluginActivator;
 
@@ -55,7 +55,7 @@ public final class FeatureRepositoryContentModel extends AbstractContentModel {
             for (final IResource featureFileResource : resources) {
                 if (featureFileResource.getFullPath().getFileExtension().equals("xml")) {
                     fin = new FileInputStream(featureFileResource.getRawLocation().toFile());
-                    featuresRepository.add(new XmlFeaturesRepository(featureFileResource.getName(), fin));
+                    featuresRepository.add(new StaxFeaturesRepository(featureFileResource.getName(), fin));
                     fin.close();
                 } else {
                     // TODO: What to do here?
@@ -18,12 +18,11 @@
  */
 package org.apache.karaf.eik.ui.model;
 
-import org.apache.karaf.eik.core.KarafCorePluginUtils;
+import org.apache.karaf.eik.core.DirectoryScanner;
 import org.apache.karaf.eik.ui.IKarafProject;
 import org.apache.karaf.eik.ui.KarafUIPluginActivator;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.swt.graphics.Image;
@@ -36,10 +35,7 @@ public class SystemBundles extends AbstractContentModel {
 
     @Override
     public Object[] getElements() {
-        final List<File> files = new ArrayList<File>();
-
-        KarafCorePluginUtils.getFileList(karafPlatformModel.getPluginRootDirectory().toFile(), ".jar", files, 50);
-        KarafCorePluginUtils.getFileList(karafPlatformModel.getPluginRootDirectory().toFile(), ".war", files, 50);
+        final List<File> files = DirectoryScanner.scan(karafPlatformModel.getPluginRootDirectory().toFile(), "*.{jar,war}", 50);
 
         return files.toArray(new Object[0]);
     }
@@ -18,18 +18,31 @@
  */
 package org.apache.karaf.eik.ui.navigator;
 
+import org.apache.karaf.eik.core.PlatformBundleChangeEvent;
+import org.apache.karaf.eik.core.PlatformBundleChangeListener;
+import org.apache.karaf.eik.ui.KarafUIPluginActivator;
 import org.apache.karaf.eik.ui.model.AbstractContentModel;
 import org.apache.karaf.eik.ui.model.ContentModel;
 import org.apache.karaf.eik.ui.project.KarafProject;
+import org.apache.karaf.eik.ui.project.KarafProjectPlatformBundleListener;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.widgets.Control;
 
-public class KarafPlatformModelContentProvider implements ITreeContentProvider {
+public class KarafPlatformModelContentProvider implements ITreeContentProvider, PlatformBundleChangeListener {
+
+    private volatile Viewer viewer;
 
     @Override
     public void dispose() {
+        final KarafProjectPlatformBundleListener platformBundleListener = getPlatformBundleListener();
+        if (platformBundleListener != null) {
+            platformBundleListener.removePlatformBundleChangeListener(this);
+        }
+
+        viewer = null;
     }
 
     @Override
@@ -71,7 +84,49 @@ public class KarafPlatformModelContentProvider implements ITreeContentProvider {
 
     @Override
     public void inputChanged(final Viewer viewer, final Object oldInput, final Object newInput) {
+        this.viewer = viewer;
+
+        final KarafProjectPlatformBundleListener platformBundleListener = getPlatformBundleListener();
+        if (viewer != null && platformBundleListener != null) {
+            platformBundleListener.addPlatformBundleChangeListener(this);
+        }
+    }
+
+    /**
+     * Returns the listener of the open Karaf projects, through which the
+     * viewer receives platform bundle changes. The platform bundles are only
+     * monitored while there is an open Karaf project, which is also the only
+     * time this viewer shows platform bundles.
+     */
+    private static KarafProjectPlatformBundleListener getPlatformBundleListener() {
+        final KarafUIPluginActivator plugin = KarafUIPluginActivator.getDefault();
+        return plugin != null ? plugin.getPlatformBundleListener() : null;
+    }
+
+    /**
+     * Refreshes the viewer when the bundles of a platform change so that the
+     * system and user bundle lists are current
+     */
+    @Override
+    public void platformBundlesChanged(final PlatformBundleChangeEvent event) {
+        final Viewer currentViewer = viewer;
+        if (currentViewer == null) {
+            return;
+        }
+
+        final Control control = currentViewer.getControl();
+        if (control == null || control.isDisposed()) {
+            return;
+        }
 
+        control.getDisplay().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (!control.isDisposed()) {
+                    currentViewer.refresh();
+                }
+            }
+        });
     }
 
 }
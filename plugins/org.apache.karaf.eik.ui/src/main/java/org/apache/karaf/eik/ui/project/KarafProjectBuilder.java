@@ -18,11 +18,15 @@
  */
 package org.apache.karaf.eik.ui.project;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -33,14 +37,18 @@ import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 
-import org.apache.karaf.eik.core.KarafCorePluginUtils;
 import org.apache.karaf.eik.core.KarafPlatformModel;
+import org.apache.karaf.eik.core.PropertiesFileCache;
 import org.apache.karaf.eik.core.PropertyUtils;
 import org.apache.karaf.eik.core.configuration.FeaturesSection;
+import org.apache.karaf.eik.core.features.FeatureClosureResolver;
 import org.apache.karaf.eik.core.features.FeaturesRepository;
 import org.apache.karaf.eik.ui.IKarafProject;
 import org.apache.karaf.eik.ui.KarafUIPluginActivator;
+import org.apache.karaf.eik.ui.features.BootFeaturesPrefetcher;
+import org.apache.karaf.eik.ui.features.FeaturesBundlesStartLevels;
 import org.apache.karaf.eik.ui.features.FeaturesResolverJob;
+import org.apache.karaf.eik.ui.features.MvnArtifactResolver;
 import org.apache.karaf.eik.ui.internal.KarafLaunchUtils;
 import org.apache.karaf.eik.ui.internal.PopulateObrFileJob;
 
@@ -57,6 +65,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubProgressMonitor;
 import org.eclipse.pde.core.target.ITargetDefinition;
 import org.eclipse.pde.core.target.ITargetHandle;
 import org.eclipse.pde.core.target.ITargetLocation;
@@ -66,17 +75,46 @@ public class KarafProjectBuilder extends IncrementalProjectBuilder {
 
     public static final String ID = "org.apache.karaf.eik.ui.karafProjectBuilder";
 
+    /**
+     * Builder argument indicating that the build was requested because the
+     * bundles of the project's Karaf platform changed
+     */
+    public static final String PLATFORM_BUNDLES_CHANGED = "platformBundlesChanged";
+
+    /**
+     * The units of build work reserved for prefetching the boot feature
+     * bundles, which usually dominates the build when bundles are missing
+     */
+    private static final int PREFETCH_WORK = 4;
+
+    private static final int BUILD_WORK = 1 + PREFETCH_WORK;
+
+    /**
+     * Resolves the transitive bundles of the project's features. It is kept
+     * between builds, so its memoized closures are reused, and replaced when
+     * the set of features repositories or the content of one of them changes.
+     */
+    private FeatureClosureResolver featureClosureResolver;
+
+    /**
+     * The names of the features repositories {@link #featureClosureResolver}
+     * was created from
+     */
+    private final List<String> featureClosureRepositoryNames = new ArrayList<String>();
+
     public KarafProjectBuilder() { }
 
     @Override
     protected IProject[] build(final int kind, @SuppressWarnings("rawtypes") final Map args, final IProgressMonitor monitor) throws CoreException {
         final IProject project = getProject();
 
-        monitor.beginTask("Building Apache Karaf project: " + project.getName(), 1);
+        monitor.beginTask("Building Apache Karaf project: " + project.getName(), BUILD_WORK);
 
         try {
             if (kind == IncrementalProjectBuilder.FULL_BUILD) {
                 fullBuild(monitor);
+            } else if (args != null && args.containsKey(PLATFORM_BUNDLES_CHANGED)) {
+                platformBundlesChangedBuild(monitor);
             } else {
                 final IResourceDelta delta = getDelta(getProject());
                 if (delta == null) {
@@ -198,7 +236,7 @@ public class KarafProjectBuilder extends IncrementalProjectBuilder {
         combinedProperties.put("karaf.etc", getKarafPlatformModel().getRootDirectory().append("etc").toOSString());
 
         for (final String filename : new String[]{"config.properties", "system.properties", "users.properties"}) {
-            final Properties fileProperties = KarafCorePluginUtils.loadProperties(getKarafPlatformModel().getConfigurationDirectory().toFile(), filename, true);
+            final Map<String, String> fileProperties = PropertiesFileCache.getProperties(getKarafPlatformModel().getConfigurationDirectory().toFile(), filename, true);
             combinedProperties.putAll(fileProperties);
         }
 
@@ -255,24 +293,40 @@ public class KarafProjectBuilder extends IncrementalProjectBuilder {
                 folder.create(true, true, monitor);
             }
 
+            boolean repositoriesChanged = false;
+
+            final List<String> repositoryNames = new ArrayList<String>();
+            final List<File> repositoryFiles = new ArrayList<File>();
             for (final FeaturesRepository repo : featuresRepositories) {
                 final IPath featuresRepositoryFilename = new Path(repo.getName()).addFileExtension("xml");
                 final IFile featuresRepositoryFile = folder.getFile(featuresRepositoryFilename.toOSString());
                 final File file = new File(featuresRepositoryFile.getRawLocation().toOSString());
 
-                FileOutputStream fout = null;
-                try {
-                    fout = new FileOutputStream(file);
-                    repo.write(fout);
-                } finally {
-                    if (fout != null) {
-                        try {
-                            fout.close();
-                        } catch (final IOException e) {
-                            // This space left blank
-                        }
-                    }
+                repositoriesChanged |= writeIfChanged(file, repo);
+                repositoryNames.add(repo.getName());
+                repositoryFiles.add(file);
+            }
+
+            if (featureClosureResolver == null || repositoriesChanged || !repositoryNames.equals(featureClosureRepositoryNames)) {
+                featureClosureResolver = new FeatureClosureResolver(featuresRepositories);
+                featureClosureRepositoryNames.clear();
+                featureClosureRepositoryNames.addAll(repositoryNames);
+            }
+
+            new FeaturesBundlesStartLevels(karafProject).update(repositoryFiles);
+
+            final MvnArtifactResolver artifactResolver = job.getMvnArtifactResolver();
+            if (artifactResolver != null) {
+                monitor.subTask("Prefetching boot feature bundles for Apache Karaf Project: " + karafProject.getName());
+
+                final IStatus prefetchStatus =
+                        new BootFeaturesPrefetcher(artifactResolver).prefetch(featuresSection.getBootFeatureNames(), featureClosureResolver, new SubProgressMonitor(monitor, PREFETCH_WORK));
+
+                if (prefetchStatus.getSeverity() == IStatus.WARNING || prefetchStatus.getSeverity() == IStatus.ERROR) {
+                    KarafUIPluginActivator.getDefault().getLog().log(prefetchStatus);
                 }
+            } else {
+                monitor.worked(PREFETCH_WORK);
             }
 
             monitor.worked(1);
@@ -323,6 +377,66 @@ public class KarafProjectBuilder extends IncrementalProjectBuilder {
         }
     }
 
+    /**
+     * Writes the content of a {@link FeaturesRepository} to a file unless the
+     * file already has exactly that content, so that unchanged repositories
+     * keep their timestamps and do not trigger workspace refreshes
+     *
+     * @param file the destination file
+     * @param repo the {@code FeaturesRepository}
+     * @return true if the file was written, false if it was unchanged
+     * @throws IOException thrown if there is a problem writing the file
+     */
+    private boolean writeIfChanged(final File file, final FeaturesRepository repo) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        repo.write(buffer);
+
+        final ByteBuffer content = ByteBuffer.wrap(buffer.toByteArray());
+
+        if (file.isFile() && file.length() == content.remaining()) {
+            final ByteBuffer existingContent = ByteBuffer.allocate(content.remaining());
+
+            FileChannel in = null;
+            try {
+                in = new FileInputStream(file).getChannel();
+                while (existingContent.hasRemaining() && in.read(existingContent) >= 0) {
+                    // read the whole file
+                }
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (final IOException e) {
+                        // ignore
+                    }
+                }
+            }
+
+            existingContent.flip();
+            if (existingContent.equals(content)) {
+                return false;
+            }
+        }
+
+        FileChannel out = null;
+        try {
+            out = new FileOutputStream(file).getChannel();
+            while (content.hasRemaining()) {
+                out.write(content);
+            }
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (final IOException e) {
+                    // This space left blank
+                }
+            }
+        }
+
+        return true;
+    }
+
     private IFile createTargetDefinitionFile() {
         final String projectName = getKarafProject().getName();
         final IPath targetFilename = new Path(projectName).addFileExtension("target");
@@ -366,6 +480,26 @@ public class KarafProjectBuilder extends IncrementalProjectBuilder {
         return (KarafPlatformModel) getKarafProject().getAdapter(KarafPlatformModel.class);
     }
 
+    /**
+     * Updates this {@link IKarafProject} after bundles were added to, changed
+     * in or removed from its Karaf platform. The platform model has already
+     * applied the changes to its OSGi {@code State}, so only the target
+     * definition, which PDE resolves from the platform's bundles, is saved
+     * again and the bundle start levels are updated from the Features
+     * repository files already in the project; the Features repositories and
+     * the OBR are not rebuilt.
+     *
+     * @param monitor
+     * @throws CoreException
+     */
+    private void platformBundlesChangedBuild(final IProgressMonitor monitor) throws CoreException {
+        createTargetPlatform(monitor);
+
+        monitor.subTask("Updating bundle start levels for Apache Karaf Project: " + getKarafProject().getName());
+        new FeaturesBundlesStartLevels(getKarafProject()).update();
+        monitor.worked(1);
+    }
+
     /**
      * Performs an incremental build of this {@link IKarafProject}
      *
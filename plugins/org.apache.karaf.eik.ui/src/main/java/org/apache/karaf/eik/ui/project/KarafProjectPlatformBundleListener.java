@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.karaf.eik.ui.project;
+
+import org.apache.karaf.eik.core.KarafPlatformModel;
+import org.apache.karaf.eik.core.KarafPlatformModelRegistry;
+import org.apache.karaf.eik.core.PlatformBundleChangeEvent;
+import org.apache.karaf.eik.core.PlatformBundleChangeListener;
+import org.apache.karaf.eik.ui.IKarafProject;
+import org.apache.karaf.eik.ui.KarafUIPluginActivator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Schedules a build of every open {@link IKarafProject} whose platform's
+ * bundles changed, passing {@link KarafProjectBuilder#PLATFORM_BUNDLES_CHANGED}
+ * so that the builder only updates what depends on the platform bundles.<br>
+ * <br>
+ * The listener is only registered with the {@link KarafPlatformModelRegistry}
+ * while the workspace has an open Karaf project, since the registry polls the
+ * platform bundles for as long as it has listeners. Other parts of the UI,
+ * such as navigator viewers, receive the platform bundle changes through this
+ * listener so that they do not cause polling without a Karaf project.
+ */
+public class KarafProjectPlatformBundleListener implements PlatformBundleChangeListener, IResourceChangeListener {
+
+    private static final int PROJECT_STATE_FLAGS = IResourceDelta.OPEN | IResourceDelta.DESCRIPTION;
+
+    private final CopyOnWriteArrayList<PlatformBundleChangeListener> dependentListeners =
+            new CopyOnWriteArrayList<PlatformBundleChangeListener>();
+
+    private boolean registered;
+
+    /**
+     * Adds a listener that is notified of the platform bundle changes this
+     * listener receives while there is an open Karaf project
+     *
+     * @param listener
+     *            the {@link PlatformBundleChangeListener} to add
+     */
+    public void addPlatformBundleChangeListener(final PlatformBundleChangeListener listener) {
+        dependentListeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Removes a listener added with
+     * {@link #addPlatformBundleChangeListener(PlatformBundleChangeListener)}
+     *
+     * @param listener
+     *            the {@link PlatformBundleChangeListener} to remove
+     */
+    public void removePlatformBundleChangeListener(final PlatformBundleChangeListener listener) {
+        dependentListeners.remove(listener);
+    }
+
+    /**
+     * Starts tracking the open Karaf projects of the workspace
+     */
+    public void install() {
+        ResourcesPlugin.getWorkspace().addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+        updateRegistration();
+    }
+
+    /**
+     * Stops tracking the workspace and unregisters from the
+     * {@link KarafPlatformModelRegistry}
+     */
+    public void uninstall() {
+        ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+
+        synchronized (this) {
+            if (registered) {
+                KarafPlatformModelRegistry.removePlatformBundleChangeListener(this);
+                registered = false;
+            }
+        }
+    }
+
+    /**
+     * Registers or unregisters this listener when projects are added,
+     * removed, opened or closed. A project only becomes a Karaf project once
+     * its creation has finished, so while unregistered any change to a
+     * project is checked.
+     */
+    @Override
+    public void resourceChanged(final IResourceChangeEvent event) {
+        final IResourceDelta delta = event.getDelta();
+        if (delta == null) {
+            return;
+        }
+
+        final boolean currentlyRegistered;
+        synchronized (this) {
+            currentlyRegistered = registered;
+        }
+
+        for (final IResourceDelta projectDelta : delta.getAffectedChildren()) {
+            if (!currentlyRegistered
+                    || projectDelta.getKind() == IResourceDelta.REMOVED
+                    || (projectDelta.getFlags() & PROJECT_STATE_FLAGS) != 0)
+            {
+                updateRegistration();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void platformBundlesChanged(final PlatformBundleChangeEvent event) {
+        for (final PlatformBundleChangeListener listener : dependentListeners) {
+            try {
+                listener.platformBundlesChanged(event);
+            } catch (final RuntimeException e) {
+                KarafUIPluginActivator.getLogger().error("Platform bundle change listener failed", e);
+            }
+        }
+
+        if (!event.isPlatformStateChanged()) {
+            return;
+        }
+
+        final KarafPlatformModel platformModel = event.getPlatformModel();
+
+        for (final IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+            if (!project.isOpen() || !KarafProject.isKarafProject(project)) {
+                continue;
+            }
+
+            final IKarafProject karafProject = (IKarafProject) project.getAdapter(IKarafProject.class);
+            if (karafProject == null || karafProject.getAdapter(KarafPlatformModel.class) != platformModel) {
+                continue;
+            }
+
+            scheduleBuild(project);
+        }
+    }
+
+    private static boolean hasOpenKarafProjects() {
+        for (final IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+            if (project.isOpen() && KarafProject.isKarafProject(project)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private synchronized void updateRegistration() {
+        final boolean openKarafProjects = hasOpenKarafProjects();
+        if (openKarafProjects && !registered) {
+            KarafPlatformModelRegistry.addPlatformBundleChangeListener(this);
+        } else if (!openKarafProjects && registered) {
+            KarafPlatformModelRegistry.removePlatformBundleChangeListener(this);
+        }
+
+        registered = openKarafProjects;
+    }
+
+    private void scheduleBuild(final IProject project) {
+        final WorkspaceJob job = new WorkspaceJob("Updating Apache Karaf project: " + project.getName()) {
+
+            @Override
+            public IStatus runInWorkspace(final IProgressMonitor monitor) throws CoreException {
+                final Map<String, String> args = new HashMap<String, String>();
+                args.put(KarafProjectBuilder.PLATFORM_BUNDLES_CHANGED, Boolean.TRUE.toString());
+
+                project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, KarafProjectBuilder.ID, args, monitor);
+
+                return Status.OK_STATUS;
+            }
+        };
+
+        job.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().buildRule());
+        job.schedule();
+
+        KarafUIPluginActivator.getLogger().info("Platform bundles changed; updating Apache Karaf project " + project.getName());
+    }
+
+}
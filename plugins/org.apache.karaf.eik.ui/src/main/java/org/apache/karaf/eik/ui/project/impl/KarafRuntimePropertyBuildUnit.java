@@ -18,8 +18,8 @@
  */
 package org.apache.karaf.eik.ui.project.impl;
 
-import org.apache.karaf.eik.core.KarafCorePluginUtils;
 import org.apache.karaf.eik.core.KarafPlatformModel;
+import org.apache.karaf.eik.core.PropertiesFileCache;
 import org.apache.karaf.eik.core.PropertyUtils;
 import org.apache.karaf.eik.ui.IKarafProject;
 import org.apache.karaf.eik.ui.KarafUIPluginActivator;
@@ -54,8 +54,8 @@ public class KarafRuntimePropertyBuildUnit extends AbstractKarafBuildUnit {
         combinedProperties.put("karaf.data", getKarafPlatformModel().getRootDirectory().append("data").toOSString());
 
         for (final String filename : new String[] { "config.properties", "system.properties", "users.properties" }) {
-            final Properties fileProperties =
-                KarafCorePluginUtils.loadProperties(
+            final Map<String, String> fileProperties =
+                PropertiesFileCache.getProperties(
                         getKarafPlatformModel().getConfigurationDirectory().toFile(),
                         filename,
                         true);
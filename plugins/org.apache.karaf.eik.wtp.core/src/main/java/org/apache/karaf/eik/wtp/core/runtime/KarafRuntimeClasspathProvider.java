@@ -18,7 +18,7 @@
  */
 package org.apache.karaf.eik.wtp.core.runtime;
 
-import org.apache.karaf.eik.core.KarafCorePluginUtils;
+import org.apache.karaf.eik.core.DirectoryScanner;
 import org.apache.karaf.eik.core.KarafPlatformModel;
 import org.apache.karaf.eik.core.KarafPlatformModelRegistry;
 
@@ -51,9 +51,7 @@ public class KarafRuntimeClasspathProvider extends RuntimeClasspathProviderDeleg
             final KarafPlatformModel karafPlatform = KarafPlatformModelRegistry.findPlatformModel(installPath);
 
             final File pluginRootDirectory = karafPlatform.getPluginRootDirectory().toFile();
-            final List<File> jarFiles = new ArrayList<File>();
-
-            KarafCorePluginUtils.getJarFileList(pluginRootDirectory, jarFiles, MAX_SEARCH_DEPTH);
+            final List<File> jarFiles = DirectoryScanner.scan(pluginRootDirectory, "*.jar", MAX_SEARCH_DEPTH);
 
             final List<IClasspathEntry> list = resolveLibraryEntries(jarFiles);
 
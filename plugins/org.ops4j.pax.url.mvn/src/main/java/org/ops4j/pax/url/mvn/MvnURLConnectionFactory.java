@@ -18,20 +18,77 @@
  */
 package org.ops4j.pax.url.mvn;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.ops4j.pax.url.maven.commons.MavenConfigurationImpl;
+import org.ops4j.pax.url.maven.commons.MavenRepositoryURL;
 import org.ops4j.pax.url.maven.commons.MavenSettingsImpl;
 import org.ops4j.pax.url.mvn.internal.Connection;
 import org.ops4j.util.property.PropertiesPropertyResolver;
 
 public class MvnURLConnectionFactory {
 
+    private static final int MAX_SHARED_FACTORIES = 16;
+
+    /**
+     * The shared factories, keyed by a copy of their configuration. A changed
+     * configuration is a new key; the least recently used factories are
+     * discarded.
+     */
+    private static final Map<Properties, MvnURLConnectionFactory> FACTORIES =
+            new LinkedHashMap<Properties, MvnURLConnectionFactory>(MAX_SHARED_FACTORIES, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Properties, MvnURLConnectionFactory> eldest) {
+                    return size() > MAX_SHARED_FACTORIES;
+                }
+            };
+
+    /**
+     * Returns a shared factory for the specified configuration. The factory
+     * parses the Maven settings once and reuses them for every
+     * {@link URLConnection} it creates until the Maven settings file changes.
+     *
+     * @param configuration
+     *            the {@code Properties} used to configure the
+     *            {@code URLConnection}
+     * @return the shared {@code MvnURLConnectionFactory}
+     */
+    public static MvnURLConnectionFactory getInstance(final Properties configuration) {
+        final Properties key = new Properties();
+        key.putAll(configuration);
+
+        synchronized (FACTORIES) {
+            MvnURLConnectionFactory factory = FACTORIES.get(key);
+            if (factory == null) {
+                factory = new MvnURLConnectionFactory(key);
+                FACTORIES.put(key, factory);
+            }
+
+            return factory;
+        }
+    }
+
     private final Properties configuration;
 
+    private MavenSettingsImpl mavenSettings;
+
+    private File settingsFile;
+
+    private long settingsLastModified;
+
     /**
      * Constructs the factory using a {@link Properties} to configure how PAX
      * Maven URL resolves Maven artifacts
@@ -53,6 +110,53 @@ public class MvnURLConnectionFactory {
      * @throws IOException
      */
     public URLConnection create(final URL url) throws IOException {
+        return new Connection(url, createMavenConfiguration());
+    }
+
+    /**
+     * Returns the local Maven repository that this factory resolves artifacts
+     * in to, as configured by {@code org.ops4j.pax.url.mvn.localRepository} or
+     * the Maven settings
+     *
+     * @return the local repository directory or null if it is not a file
+     *         repository
+     */
+    public File getLocalRepository() {
+        final MavenRepositoryURL localRepository = createMavenConfiguration().getLocalRepository();
+        if (localRepository == null) {
+            return null;
+        }
+
+        return localRepository.getFile();
+    }
+
+    /**
+     * Returns the base URLs of the remote repositories that this factory
+     * resolves release artifacts from
+     *
+     * @return the repository {@link URL}s
+     * @throws MalformedURLException
+     *             if a configured repository URL is invalid
+     */
+    public List<URL> getReleaseRepositories() throws MalformedURLException {
+        final List<URL> repositories = new ArrayList<URL>();
+        for (final MavenRepositoryURL repository : createMavenConfiguration().getRepositories()) {
+            if (repository.isReleasesEnabled()) {
+                repositories.add(repository.getURL());
+            }
+        }
+
+        return repositories;
+    }
+
+    /**
+     * Creates a new Maven configuration backed by the shared Maven settings.
+     * {@link MavenConfigurationImpl} caches the properties it resolves in an
+     * unsynchronized map, so each connection gets its own instance.
+     *
+     * @return the {@link MavenConfigurationImpl}
+     */
+    private MavenConfigurationImpl createMavenConfiguration() {
         final PropertiesPropertyResolver systemProperties =
                 new PropertiesPropertyResolver(System.getProperties());
 
@@ -62,8 +166,57 @@ public class MvnURLConnectionFactory {
         final MavenConfigurationImpl config =
                 new MavenConfigurationImpl(configuredProperties, ServiceConstants.PID);
 
-        config.setSettings(new MavenSettingsImpl(config.getSettingsFileUrl(), config.useFallbackRepositories()));
+        config.setSettings(getMavenSettings(config));
+
+        return config;
+    }
+
+    /**
+     * Returns the parsed Maven settings of this factory, reading them on first
+     * use and again whenever the Maven settings file has changed.
+     * {@link MavenSettingsImpl} reads its values lazily, so they are all read
+     * here, while holding the lock, and the instance is not modified after it
+     * is shared.
+     *
+     * @param config
+     *            the {@link MavenConfigurationImpl} naming the settings file
+     * @return the {@link MavenSettingsImpl}
+     */
+    private synchronized MavenSettingsImpl getMavenSettings(final MavenConfigurationImpl config) {
+        if (mavenSettings != null && settingsFile.lastModified() == settingsLastModified) {
+            return mavenSettings;
+        }
+
+        settingsFile = getSettingsFile(config.getSettingsFileUrl());
+        settingsLastModified = settingsFile.lastModified();
+
+        final MavenSettingsImpl settings = new MavenSettingsImpl(config.getSettingsFileUrl(), config.useFallbackRepositories());
+        settings.getLocalRepository();
+        settings.getRepositories();
+        settings.getProxySettings();
+
+        mavenSettings = settings;
+        return mavenSettings;
+    }
+
+    /**
+     * Determines the Maven settings file that {@link MavenSettingsImpl} reads
+     *
+     * @param settingsFileUrl
+     *            the configured settings file or null for the default
+     * @return the settings {@link File}, which may not exist
+     */
+    private static File getSettingsFile(final URL settingsFileUrl) {
+        if (settingsFileUrl != null && "file".equals(settingsFileUrl.getProtocol())) {
+            try {
+                return new File(settingsFileUrl.toURI());
+            } catch (final URISyntaxException e) {
+                return new File(settingsFileUrl.getPath());
+            } catch (final IllegalArgumentException e) {
+                return new File(settingsFileUrl.getPath());
+            }
+        }
 
-        return new Connection(url, config);
+        return new File(System.getProperty("user.home"), ".m2" + File.separator + "settings.xml");
     }
 }